@@ -23,7 +23,6 @@ import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import javafx.concurrent.Task;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -45,24 +44,30 @@ import javafx.scene.text.Font;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
-import net.sourceforge.tess4j.util.ImageIOHelper;
 import net.sourceforge.tessboxeditor.control.ImageCanvas;
+import net.sourceforge.tessboxeditor.datamodel.BoxFileReader;
+import net.sourceforge.tessboxeditor.datamodel.BoxFileWriter;
+import net.sourceforge.tessboxeditor.datamodel.BoxPageList;
 import net.sourceforge.tessboxeditor.datamodel.TessBox;
 import net.sourceforge.tessboxeditor.datamodel.TessBoxCollection;
+import net.sourceforge.tessboxeditor.utilities.ImagePageList;
 import net.sourceforge.tessboxeditor.utilities.ImageUtils;
+import net.sourceforge.tessboxeditor.utilities.InkBounds;
+import net.sourceforge.tessboxeditor.utilities.LruCache;
+import net.sourceforge.tessboxeditor.utilities.MappedTextFile;
 import net.sourceforge.vietocr.util.Utils;
 import net.sourceforge.vietpad.utilities.TextUtilities;
 
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntUnaryOperator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -80,6 +85,8 @@ public class BoxEditorController implements Initializable {
     @FXML
     private Button btnClearUp;
     @FXML
+    private Button btnFitInk;
+    @FXML
     private Button btnMovLeft;
     @FXML
     private Button btnMovRight;
@@ -148,6 +155,8 @@ public class BoxEditorController implements Initializable {
     @FXML
     private Label labelPageNbr;
     @FXML
+    private Label labelCacheStats;
+    @FXML
     protected TableView<TessBox> tableView;
     @FXML
     private TableColumn<TessBox, String> tcChar;
@@ -175,11 +184,12 @@ public class BoxEditorController implements Initializable {
     protected String currentDirectory, outputDirectory;
     protected List<TessBoxCollection> boxPages;
     protected TessBoxCollection boxes; // boxes of current page
-    private short imageIndex;
+    private volatile short imageIndex; // also read by the prefetcher
     private int filterIndex;
-    protected List<BufferedImage> imageList;
+    protected ImagePageList imageList;
     private boolean isTess2_0Format;
     private BooleanProperty boxChangedProp;
+    private final ListChangeListener<TessBox> boxListListener = change -> boxChangedProp.set(true);
     protected boolean tableSelectAction;
     static final String EOL = System.getProperty("line.separator");
     final String[] headers = {"Char", "X", "Y", "Width", "Height"};
@@ -189,6 +199,14 @@ public class BoxEditorController implements Initializable {
     protected static int scaleFactor = 4;
 
     Image image;
+    private static final long SUBIMAGE_CACHE_BUDGET = 8L * 1024 * 1024;
+    // magnified box views of the current page, scale and margin, by box rectangle
+    private final LruCache<Rectangle2D, Image> subimageCache = new LruCache<Rectangle2D, Image>(SUBIMAGE_CACHE_BUDGET,
+            subImage -> (long) subImage.getWidth() * (long) subImage.getHeight() * 4);
+    private Object subimageSource;
+    private int subimagePage;
+    private int subimageScale;
+    private int subimageMargin;
 
     private final StringProperty fontFamily = new SimpleStringProperty(Font.getDefault().getFamily());
     private final IntegerProperty fontSize = new SimpleIntegerProperty((int) Font.getDefault().getSize());
@@ -197,7 +215,12 @@ public class BoxEditorController implements Initializable {
     private final static Logger logger = Logger.getLogger(BoxEditorController.class.getName());
     private int selectedIndex;
     private File textFile;
-    private String content;
+    private MappedTextFile boxText;
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Page prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Initializes the controller class.
@@ -240,7 +263,7 @@ public class BoxEditorController implements Initializable {
 
         tfCharacter.focusedProperty().addListener((obs, wasFocused, isNowFocused) -> {
             if (!isNowFocused && !this.btnConvert.isFocused()) {
-                if (boxes != null && boxes.getSelectedBoxes().size() == 1) {
+                if (boxes != null && boxes.selectedCount() == 1) {
                     String str = tfCharacter.getText();
                     boxes.getSelectedBoxes().get(0).setCharacter(str);
                     tfChar.setText(str);
@@ -249,6 +272,18 @@ public class BoxEditorController implements Initializable {
             }
         });
 
+        // load the raw box data a chunk at a time as it is scrolled into view
+        taBoxData.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+            ScrollPane scrollPane = (ScrollPane) taBoxData.lookup(".scroll-pane");
+            if (scrollPane != null) {
+                scrollPane.vvalueProperty().addListener((o, oldValue, newValue) -> {
+                    if (newValue.doubleValue() >= scrollPane.getVmax() * 0.9) {
+                        appendBoxData();
+                    }
+                });
+            }
+        });
+
         tableView.setRowFactory(tv -> {
             TableRow<TessBox> row = new TableRow<>();
             row.styleProperty().bind(style);
@@ -257,7 +292,7 @@ public class BoxEditorController implements Initializable {
         scrollPaneImage.setOnKeyPressed(event -> {
             System.out.println(event.getCode().getName());
             if (event.getCode().getName().equals("Right")) {
-                int position = boxes.toList().indexOf(boxes.getSelectedBoxes().get(0));
+                int position = boxes.indexOf(boxes.getSelectedBoxes().get(0));
                 if (position > boxes.toList().size()) {
                     return;
                 }
@@ -268,7 +303,7 @@ public class BoxEditorController implements Initializable {
                 imageCanvas.paint(cbCansee.isSelected());
             }
             if (event.getCode().getName().equals("Left")) {
-                int position = boxes.toList().indexOf(boxes.getSelectedBoxes().get(0));
+                int position = boxes.indexOf(boxes.getSelectedBoxes().get(0));
                 if (position - 1 < 0) {
                     return;
                 }
@@ -278,6 +313,25 @@ public class BoxEditorController implements Initializable {
                 imageCanvas.setTable(tableView, scrollPaneImage);
                 imageCanvas.paint(cbCansee.isSelected());
             }
+            if (event.isShortcutDown()) {
+                switch (event.getCode()) {
+                    case PLUS:
+                    case EQUALS:
+                    case ADD:
+                        imageCanvas.zoomIn();
+                        return;
+                    case MINUS:
+                    case SUBTRACT:
+                        imageCanvas.zoomOut();
+                        return;
+                    case DIGIT0:
+                    case NUMPAD0:
+                        imageCanvas.setZoom(1);
+                        return;
+                    default:
+                        break;
+                }
+            }
             switch (event.getText()) {
                 case "a":
                     if (event.isShiftDown()) {
@@ -287,13 +341,13 @@ public class BoxEditorController implements Initializable {
                     }
                     break;
                 case "z":
-                    for (int i = 0; i < boxes.getSelectedBoxes().size(); i++) {
+                    for (int i = 0; i < boxes.selectedCount(); i++) {
                         Rectangle2D re = new Rectangle2D(boxes.getSelectedBoxes().get(i).getX() + 1, boxes.getSelectedBoxes().get(i).getY() + 1, boxes.getSelectedBoxes().get(i).getWidth() - 1, boxes.getSelectedBoxes().get(i).getHeight() - 1);
                         boxes.getSelectedBoxes().get(i).setRect(re);
                     }
                     imageCanvas.setBoxes(boxes);
                     imageCanvas.setTable(tableView, scrollPaneImage);
-                    imageCanvas.paint(cbCansee.isSelected());
+                    imageCanvas.requestPaint(cbCansee.isSelected());
                     break;
                 case "r":
                     List<TessBox> se = boxes.getSelectedBoxes();
@@ -302,16 +356,16 @@ public class BoxEditorController implements Initializable {
                     }
                     imageCanvas.setBoxes(boxes);
                     imageCanvas.setTable(tableView, scrollPaneImage);
-                    imageCanvas.paint(cbCansee.isSelected());
+                    imageCanvas.requestPaint(cbCansee.isSelected());
                     break;
                 case "x":
-                    for (int i = 0; i < boxes.getSelectedBoxes().size(); i++) {
+                    for (int i = 0; i < boxes.selectedCount(); i++) {
                         Rectangle2D re1 = new Rectangle2D(boxes.getSelectedBoxes().get(i).getX() - 1, boxes.getSelectedBoxes().get(i).getY() - 1, boxes.getSelectedBoxes().get(i).getWidth() + 2, boxes.getSelectedBoxes().get(i).getHeight() + 2);
                         boxes.getSelectedBoxes().get(i).setRect(re1);
                     }
                     imageCanvas.setBoxes(boxes);
                     imageCanvas.setTable(tableView, scrollPaneImage);
-                    imageCanvas.paint(cbCansee.isSelected());
+                    imageCanvas.requestPaint(cbCansee.isSelected());
                     break;
                 case "w":
                     if (event.isShiftDown()) {
@@ -341,8 +395,8 @@ public class BoxEditorController implements Initializable {
                     moveBoxes(0, 0, 1);
                     break;
                 case "g"://调整大小:
-                    TessBox box = boxes.toList().get(boxes.toList().indexOf(boxes.getSelectedBoxes().get(0)) + 1);
-                    TessBox box1 = boxes.toList().get(boxes.toList().indexOf(boxes.getSelectedBoxes().get(0)));
+                    TessBox box = boxes.toList().get(boxes.indexOf(boxes.getSelectedBoxes().get(0)) + 1);
+                    TessBox box1 = boxes.toList().get(boxes.indexOf(boxes.getSelectedBoxes().get(0)));
                     box1.setCharacter(box1.getCharacter() + box.getCharacter());
                     Rectangle2D rectangle2D = new Rectangle2D(box1.getX(), box1.getY(), box.getX() - box1.getX() + box.getWidth(), box1.getHeight());
                     this.boxes.remove(box);
@@ -353,7 +407,7 @@ public class BoxEditorController implements Initializable {
 
                     break;
                 case "q"://增加:
-                    if (boxes.getSelectedBoxes().size() > 1) {
+                    if (boxes.selectedCount() > 1) {
                         List<TessBox> newBoses = new ArrayList<>();
                         List<TessBox> selBoxes = boxes.getSelectedBoxes();
                         for (int i = 0; i < selBoxes.size(); i++) {
@@ -364,10 +418,12 @@ public class BoxEditorController implements Initializable {
                         for (int i = 0; i < selBoxes.size(); i++) {
                             selBoxes.get(i).setSelected(false);
                         }
-                        for (int i = 0; i < newBoses.size(); i++) {
-                            newBoses.get(i).setSelected(true);
-                            boxes.add(newBoses.get(i));
-                        }
+                        boxes.batch(edits -> {
+                            for (TessBox newBox : newBoses) {
+                                newBox.setSelected(true);
+                                edits.add(newBox);
+                            }
+                        });
                         imageCanvas.setBoxes(boxes);
                         imageCanvas.setTable(tableView, scrollPaneImage);
                         imageCanvas.paint(cbCansee.isSelected());
@@ -379,7 +435,7 @@ public class BoxEditorController implements Initializable {
                     deleteAction();
                     break;
                 case "f"://删除:
-                    int position = boxes.toList().indexOf(boxes.getSelectedBoxes().get(0));
+                    int position = boxes.indexOf(boxes.getSelectedBoxes().get(0));
                     if (position > boxes.toList().size()) {
                         return;
                     }
@@ -419,7 +475,7 @@ public class BoxEditorController implements Initializable {
                         // select box
                         logger.info(box.getCharacter());
                         box.setSelected(true);
-                        scrollRectToVisible(scrollPaneImage, box.getRect());
+                        scrollRectToVisible(scrollPaneImage, imageCanvas.pageToView(box.getRect()));
                     }
                     imageCanvas.paint(cbCansee.isSelected());
 
@@ -493,7 +549,11 @@ public class BoxEditorController implements Initializable {
         tcWidth.setCellValueFactory(new PropertyValueFactory<>("width"));
         tcHeight.setCellValueFactory(new PropertyValueFactory<>("height"));
 //序号
-        tcNum.setCellValueFactory(column -> new ReadOnlyObjectWrapper<>(tableView.getItems().indexOf(column.getValue()) + 1));
+        tcNum.setCellValueFactory(column -> {
+            TessBox box = column.getValue();
+            int index = boxes != null && tableView.getItems() == boxes.toList() ? boxes.indexOf(box) : tableView.getItems().indexOf(box);
+            return new ReadOnlyObjectWrapper<>(index + 1);
+        });
         // alternatively
 //        tcNum.setCellFactory(new Callback<TableColumn, TableCell>() {
 //            @Override
@@ -584,6 +644,7 @@ public class BoxEditorController implements Initializable {
                 imageIndex = newValue.shortValue();
                 loadImage();
                 loadTable(0, 0, 0);
+                prefetchPages(imageIndex);
             }
         });
 
@@ -607,6 +668,8 @@ public class BoxEditorController implements Initializable {
             }
         } else if (event.getSource() == btnClearUp) {
             cleraUpBoxes();
+        } else if (event.getSource() == btnFitInk) {
+            fitBoxesToInk();
         } else if (event.getSource() == btnMovLeft) {
             moveBoxes(-1, 0, 1);
         } else if (event.getSource() == btnGetData) {
@@ -663,7 +726,7 @@ public class BoxEditorController implements Initializable {
                 handleAction(new ActionEvent(tfCharacter, null));
             }
         } else if (event.getSource() == tfCharacter) {
-            if (boxes.getSelectedBoxes().size() == 1) {
+            if (boxes.selectedCount() == 1) {
                 String str = tfCharacter.getText();
                 boxes.getSelectedBoxes().get(0).setCharacter(str);
                 tfChar.setText(str);
@@ -674,7 +737,7 @@ public class BoxEditorController implements Initializable {
             if (imageList == null) {
                 return;
             }
-            int pageHeight = imageList.get(imageIndex).getHeight();
+            int pageHeight = imageList.getHeight(imageIndex);
             String[] items = this.tfFind.getText().split("\\s+");
             try {
                 TessBox findBox;
@@ -698,7 +761,7 @@ public class BoxEditorController implements Initializable {
                 }
 
                 if (findBox != null) {
-                    int index = boxes.toList().indexOf(findBox);
+                    int index = boxes.indexOf(findBox);
                     this.tableView.getSelectionModel().clearAndSelect(index);
                     this.tableView.scrollTo(index > 10 ? index - 4 : index);
                 } else {
@@ -728,7 +791,7 @@ public class BoxEditorController implements Initializable {
             return;
         }
         TessBox selectedBox = null;
-        if (boxes.getSelectedBoxes().size() == 1) {
+        if (boxes.selectedCount() == 1) {
             selectedBox = boxes.getSelectedBoxes().get(0);
         }
         if (selectedBox != null) {
@@ -764,7 +827,7 @@ public class BoxEditorController implements Initializable {
             if (!selectedBox.getRect().equals(newRect)) {
                 selectedBox.setRect(newRect);
                 boxChangedProp.set(true);
-                imageCanvas.paint(cbCansee.isSelected());
+                imageCanvas.requestPaint(cbCansee.isSelected());
             }
 
             // update subimage
@@ -789,7 +852,7 @@ public class BoxEditorController implements Initializable {
         }
 
         TessBox box = selected.get(0);
-        int index = this.boxes.toList().indexOf(box);
+        int index = this.boxes.indexOf(box);
         index++;
         // offset the new box 15 pixel from the base one
         TessBox newBox = new TessBox(box.getCharacter(), new Rectangle2D(box.getX() + box.getWidth() + 5, box.getY(), box.getWidth(), box.getHeight()), box.getPage());
@@ -810,9 +873,7 @@ public class BoxEditorController implements Initializable {
         }
 
         this.tableView.getSelectionModel().clearSelection();
-        for (TessBox box : selected) {
-            this.boxes.remove(box);
-        }
+        this.boxes.removeAll(selected);
 
         resetReadout();
         this.imageCanvas.paint(false);
@@ -824,8 +885,27 @@ public class BoxEditorController implements Initializable {
      * @param newRect
      */
     void updateSubimage(Rectangle2D newRect) {
-        Image subImage = ImageUtils.getSubimage(image, newRect, iconMargin);
-        Image rescaledImage = ImageUtils.resample(subImage, scaleFactor);
+        Object source = image != null ? image : imageList;
+        if (source != subimageSource || imageIndex != subimagePage || scaleFactor != subimageScale || iconMargin != subimageMargin) {
+            subimageCache.clear();
+            subimageSource = source;
+            subimagePage = imageIndex;
+            subimageScale = scaleFactor;
+            subimageMargin = iconMargin;
+        }
+        Image rescaledImage = subimageCache.get(newRect);
+        if (rescaledImage == null) {
+            Image subImage;
+            if (image != null) {
+                subImage = ImageUtils.getSubimage(image, newRect, iconMargin);
+            } else {
+                // tiled page
+                subImage = imageList.getFXRegion(imageIndex, new java.awt.Rectangle((int) newRect.getMinX() - iconMargin, (int) newRect.getMinY() - iconMargin,
+                        (int) newRect.getWidth() + iconMargin * 2, (int) newRect.getHeight() + iconMargin * 2));
+            }
+            rescaledImage = ImageUtils.resample(subImage, scaleFactor);
+            subimageCache.put(newRect, rescaledImage);
+        }
         charImageView.setImage(rescaledImage);
         charImageView.setFitWidth(rescaledImage.getWidth());
         charImageView.setFitHeight(rescaledImage.getHeight());
@@ -867,24 +947,31 @@ public class BoxEditorController implements Initializable {
 
     void readImageFile(File selectedFile) {
         try {
-            imageList = ImageIOHelper.getImageList(selectedFile);
-            if (imageList == null) {
+            if (imageList != null) {
+                imageList.close();
+                imageList = null;
+            }
+            ImagePageList pages = new ImagePageList(selectedFile);
+            if (pages.isEmpty()) {
+                pages.close();
                 new Alert(AlertType.ERROR, bundle.getString("Cannotloadimage")).show();
                 return;
             }
+            imageList = pages;
             imageIndex = 0;
 
             Platform.runLater(() -> {
                 paginationPage.setPageCount(imageList.size());
                 paginationPage.setCurrentPageIndex(0);
                 loadImage();
+                prefetchPages(0);
                 this.scrollPaneImage.setVvalue(0); // scroll to top
                 this.scrollPaneImage.setHvalue(0); // scroll to left
                 ((Stage) tableView.getScene().getWindow()).setTitle(JTessBoxEditor.APP_NAME + " - " + selectedFile.getName());
             });
         } catch (OutOfMemoryError oome) {
             new Alert(AlertType.ERROR, "Out-Of-Memory Exception").show();
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
             logger.log(Level.SEVERE, e.getMessage(), e);
             if (e.getMessage() != null) {
                 new Alert(AlertType.ERROR, e.getMessage()).show();
@@ -945,37 +1032,29 @@ public class BoxEditorController implements Initializable {
         if (boxFile.exists()) {
             try {
                 if (!isReLoadTxt) {
-                    boxPages.clear();
-                    // load into textarea first
-                    content = readBoxFile(boxFile);
-                    boxPages = parseBoxString(content, imageList);
-                }
-
-                for (int i = 0; i < boxPages.size(); i++) {
-                    File textFile = new File(boxFile.getParent() + "/" + (i + 1) + ".txt");
-                    if (textFile.exists()) {
-                        char[] texts = readFile2String(textFile, "utf-8").replace(" ", "").replace("\n", "").replace("\r", "").toCharArray();
-                        ObservableList<TessBox> boxs = boxPages.get(i).toList();
-                        for (int j = 0; j < texts.length; j++) {
-                            if (j < boxs.size()) {
-                                boxs.get(j).setCharacter(String.valueOf(texts[j]));
-                            }
-
+                    // only index the box file; pages are parsed as they are shown
+                    ImagePageList pages = imageList;
+                    BoxPageList allBoxPages = new BoxPageList(boxFile, pages.size(), pages::getHeight, (pageBoxes, pageIndex) -> applyTextFile(boxFile, pageBoxes, pageIndex));
+                    isTess2_0Format = allBoxPages.isTess2_0Format();
+                    boxPages = allBoxPages;
+                } else {
+                    // pages not loaded yet get the text when they are parsed
+                    for (int i = 0; i < boxPages.size(); i++) {
+                        if (!(boxPages instanceof BoxPageList) || ((BoxPageList) boxPages).isLoaded(i)) {
+                            applyTextFile(boxFile, boxPages.get(i), i);
                         }
                     }
-
                 }
 
-
                 Platform.runLater(() -> {
-                    this.taBoxData.setText(content);
+                    showBoxData(boxFile);
                     loadTable(0, 0, 0);
                 });
                 boxChangedProp.set(false);
             } catch (OutOfMemoryError oome) {
                 logger.log(Level.SEVERE, oome.getMessage(), oome);
                 new Alert(AlertType.NONE, oome.getMessage(), ButtonType.OK).showAndWait();
-            } catch (IOException | NumberFormatException e) {
+            } catch (IOException | UncheckedIOException | NumberFormatException e) {
                 logger.log(Level.SEVERE, e.getMessage(), e);
                 if (e.getMessage() != null) {
                     new Alert(AlertType.NONE, e.getMessage(), ButtonType.OK).showAndWait();
@@ -984,6 +1063,7 @@ public class BoxEditorController implements Initializable {
         } else {
             // clear table and box display
             tableView.setItems(null);
+            boxText = null;
             taBoxData.setText(null);
             imageCanvas.setBoxes(null);
             imageCanvas.setTable(null, scrollPaneImage);
@@ -998,63 +1078,164 @@ public class BoxEditorController implements Initializable {
         boxChangedProp.set(true);
     }
 
-    void moveBoxes(int intervalX, int intervalY, int type) {
-        Platform.runLater(() -> {
-            loadTable(intervalX, intervalY, type);
+    /**
+     * Fits all boxes of the current page to the ink of their characters.
+     * Boxes without ink are left as they are.
+     */
+    void fitBoxesToInk() {
+        if (boxes == null || imageList == null) {
+            return;
+        }
+        InkBounds ink;
+        try {
+            ink = new InkBounds(imageList.get(imageIndex));
+        } catch (UncheckedIOException e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+            new Alert(AlertType.ERROR, e.getMessage()).show();
+            return;
+        }
+
+        boolean[] changed = new boolean[1];
+        boxes.batch(edits -> {
+            for (TessBox box : boxes.toList()) {
+                java.awt.Rectangle rect = ink.tighten(new java.awt.Rectangle(box.getX(), box.getY(), box.getWidth(), box.getHeight()));
+                if (rect != null && (rect.x != box.getX() || rect.y != box.getY() || rect.width != box.getWidth() || rect.height != box.getHeight())) {
+                    edits.setRect(box, rect.x, rect.y, rect.width, rect.height);
+                    changed[0] = true;
+                }
+            }
         });
+        if (!changed[0]) {
+            return;
+        }
         boxChangedProp.set(true);
+        imageCanvas.requestPaint(cbCansee.isSelected());
+        int index = tableView.getSelectionModel().getSelectedIndex();
+        if (index >= 0) {
+            // refresh the readout of the selected box
+            tableView.getSelectionModel().clearSelection();
+            tableView.getSelectionModel().select(index);
+        }
     }
 
-    String readBoxFile(File boxFile) throws IOException {
-        return new String(Files.readAllBytes(Paths.get(boxFile.getPath())), StandardCharsets.UTF_8);
+    void moveBoxes(int intervalX, int intervalY, int type) {
+        if (boxes == null || boxes.selectedCount() == 0) {
+            return;
+        }
+        makeOrder(boxes, intervalX, intervalY, type);
+        boxChangedProp.set(true);
+        imageCanvas.requestPaint(cbCansee.isSelected());
     }
 
-    List<TessBoxCollection> parseBoxString(String boxStr, List<BufferedImage> imageList) throws IOException {
-        List<TessBoxCollection> allBoxPages = new ArrayList<TessBoxCollection>();
+    /**
+     * Replaces box characters of a page with those of the page's text file
+     * (<code>1.txt</code> for the first page), if any, next to the box file.
+     *
+     * @param boxFile box file
+     * @param boxes boxes of the page
+     * @param pageIndex page index
+     */
+    void applyTextFile(File boxFile, TessBoxCollection boxes, int pageIndex) {
+        File textFile = new File(boxFile.getParent() + "/" + (pageIndex + 1) + ".txt");
+        if (textFile.exists()) {
+            char[] texts = readFile2String(textFile, "utf-8").replace(" ", "").replace("\n", "").replace("\r", "").toCharArray();
+            ObservableList<TessBox> boxs = boxes.toList();
+            for (int j = 0; j < texts.length; j++) {
+                if (j < boxs.size()) {
+                    boxs.get(j).setCharacter(String.valueOf(texts[j]));
+                }
 
-        String[] boxdata = boxStr.split("\\R"); // or "\\r?\\n"
-        if (boxdata.length > 0) {
-            // if only 5 fields, it's Tess 2.0x format
-            isTess2_0Format = boxdata[0].split("\\s+").length == 5;
+            }
         }
+    }
 
-        int startBoxIndex = 0;
-
-        for (int curPage = 0; curPage < imageList.size(); curPage++) {
-            TessBoxCollection boxCol = new TessBoxCollection();
-            // Note that the coordinate system used in the box file has (0,0) at the bottom-left.
-            // On computer graphics device, (0,0) is defined as top-left.
-            int pageHeight = imageList.get(curPage).getHeight();
-            for (int i = startBoxIndex; i < boxdata.length; i++) {
-                String[] items = boxdata[i].split("(?<!^) +");
-
-                // skip invalid data
-                if (items.length < 5 || items.length > 6) {
-                    continue;
+    /**
+     * Loads the pages next to a page in the background.
+     *
+     * @param pageIndex page index
+     */
+    void prefetchPages(int pageIndex) {
+        final ImagePageList images = imageList;
+        final List<TessBoxCollection> pages = boxPages;
+        prefetcher.execute(() -> {
+            if (imageIndex != pageIndex) {
+                return; // moved on to another page
+            }
+            for (int i : new int[]{pageIndex + 1, pageIndex - 1}) {
+                try {
+                    if (i >= 0 && i < images.size() && !images.isTiled(i)) {
+                        images.prefetchFXImage(i, pageIndex);
+                    }
+                    if (i >= 0 && i < pages.size()) {
+                        pages.get(i);
+                    }
+                } catch (RuntimeException e) {
+                    // reported when the page is shown
+                    logger.log(Level.FINE, e.getMessage(), e);
                 }
+            }
+            Platform.runLater(() -> updateCacheStats());
+        });
+    }
 
-                String chrs = items[0];
-                int x = Integer.parseInt(items[1]);
-                int y = Integer.parseInt(items[2]);
-                int w = Integer.parseInt(items[3]) - x;
-                int h = Integer.parseInt(items[4]) - y;
-                y = pageHeight - y - h; // flip the y-coordinate
+    /**
+     * Shows page cache statistics in the status bar.
+     */
+    void updateCacheStats() {
+        if (imageList == null) {
+            labelCacheStats.setText(null);
+            return;
+        }
+        labelCacheStats.setText(String.format("Cache: %d hits, %d misses, %d MB",
+                imageList.getCacheHits(), imageList.getCacheMisses(), imageList.getCacheSize() / (1024 * 1024)));
+    }
 
-                short page;
-                if (items.length == 6) {
-                    page = Short.parseShort(items[5]); // Tess 3.0x format
-                } else {
-                    page = 0; // Tess 2.0x format
-                }
-                if (page > curPage) {
-                    startBoxIndex = i; // mark begin of next page
-                    break;
-                }
-                boxCol.add(new TessBox(chrs, new Rectangle2D(x, y, w, h), page));
-            }
-            allBoxPages.add(boxCol); // add the last page
+    /**
+     * Shows the raw box data. Only the first chunk of the file is loaded; the
+     * rest is appended as the text area is scrolled down.
+     *
+     * @param boxFile box file
+     */
+    void showBoxData(File boxFile) {
+        boxText = new MappedTextFile(boxFile);
+        try {
+            taBoxData.setText(boxText.next());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            boxText = null;
+            taBoxData.setText(null);
         }
+    }
 
+    /**
+     * Appends the next chunk of raw box data, if any.
+     */
+    void appendBoxData() {
+        if (boxText == null || !boxText.hasNext()) {
+            return;
+        }
+        try {
+            int caretPosition = taBoxData.getCaretPosition();
+            taBoxData.appendText(boxText.next());
+            taBoxData.positionCaret(caretPosition);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            boxText = null;
+        }
+    }
+
+    /**
+     * Parses a box file into pages of boxes.
+     *
+     * @param boxFile box file
+     * @param imageList page images, for page count and heights
+     * @return boxes of each page
+     * @throws IOException
+     */
+    List<TessBoxCollection> parseBoxes(File boxFile, List<BufferedImage> imageList) throws IOException {
+        BoxFileReader reader = new BoxFileReader(imageList.size(), page -> imageList.get(page).getHeight());
+        List<TessBoxCollection> allBoxPages = reader.read(boxFile);
+        isTess2_0Format = reader.isTess2_0Format();
         return allBoxPages;
     }
 
@@ -1142,10 +1323,11 @@ public class BoxEditorController implements Initializable {
     //保存box文件
     boolean saveBoxFile(File file) {
         try {
-            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
-                out.write(formatOutputString(imageList, boxPages));
-            }
+            writeBoxFile(file, imageList::getHeight, boxPages);
             boxChangedProp.set(false);
+            if (boxText != null) {
+                showBoxData(file); // chunk offsets of the rewritten file are no longer valid
+            }
         } catch (OutOfMemoryError oome) {
             logger.log(Level.SEVERE, oome.getMessage(), oome);
             new Alert(AlertType.NONE, oome.getMessage(), ButtonType.OK).showAndWait();
@@ -1160,38 +1342,78 @@ public class BoxEditorController implements Initializable {
         return true;
     }
 
-    //格式化输出字符
-    String formatOutputString(List<BufferedImage> imageList, List<TessBoxCollection> boxPages) {
-        StringBuilder sb = new StringBuilder();
-        for (short pageIndex = 0; pageIndex < imageList.size(); pageIndex++) {
-            int pageHeight = ((BufferedImage) imageList.get(pageIndex)).getHeight(); // each page (in an image) can have different height
-            for (TessBox box : boxPages.get(pageIndex).toList()) {
-                Rectangle2D rect = box.getRect();
-                sb.append(String.format("%s %.0f %.0f %.0f %.0f %d", box.getCharacter(), rect.getMinX(), pageHeight - rect.getMinY() - rect.getHeight(), rect.getMinX() + rect.getWidth(), pageHeight - rect.getMinY(), pageIndex)).append(EOL);
+    //写出box文件
+    void writeBoxFile(File file, IntUnaryOperator pageHeight, List<TessBoxCollection> boxPages) throws IOException {
+        // parse pages not loaded yet before the file they are read from is overwritten
+        List<TessBoxCollection> allBoxPages = new ArrayList<TessBoxCollection>(boxPages);
+        try (BoxFileWriter out = new BoxFileWriter(file)) {
+            out.setTess2_0Format(isTess2_0Format);
+            for (short pageIndex = 0; pageIndex < allBoxPages.size(); pageIndex++) {
+                // each page (in an image) can have different height
+                out.writePage(allBoxPages.get(pageIndex), pageIndex, pageHeight.applyAsInt(pageIndex));
             }
         }
-        if (isTess2_0Format) {
-            return sb.toString().replace(" 0" + EOL, EOL); // strip the ending zeroes
-        }
-        return sb.toString();
     }
 
     //加载图片
     void loadImage() {
-        image = SwingFXUtils.toFXImage(imageList.get(imageIndex), null);
-        imageCanvas.setImage(image);
+        if (imageList.isTiled(imageIndex)) {
+            image = null;
+            imageCanvas.setTiledImage(imageList, imageIndex);
+        } else {
+            image = imageList.getFXImage(imageIndex);
+            imageCanvas.setImage(image);
+        }
+        updateCacheStats();
         tableSelectAction = true;
         resetReadout();
         tableSelectAction = false;
         imageCanvas.paint(cbCansee.isSelected());
+        if (image != null) {
+            loadPageLevels();
+        }
+    }
+
+    /**
+     * Builds the downsampled levels of the current page in the background,
+     * for drawing it zoomed out.
+     */
+    void loadPageLevels() {
+        final ImagePageList images = imageList;
+        final Image base = image;
+        final int pageIndex = imageIndex;
+        prefetcher.execute(() -> {
+            if (imageIndex != pageIndex) {
+                return; // moved on to another page
+            }
+            try {
+                Image[] levels = images.getFXImageLevels(pageIndex);
+                Platform.runLater(() -> imageCanvas.setPageLevels(base, levels));
+            } catch (RuntimeException e) {
+                // the page is shown at full size only
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        });
     }
 
     //加载表
     void loadTable(int intervalX, int intervalY, int type) {
         if (!this.boxPages.isEmpty()) {
+            TessBoxCollection pageBoxes;
+            try {
+                pageBoxes = this.boxPages.get(imageIndex);
+            } catch (UncheckedIOException | NumberFormatException e) {
+                logger.log(Level.SEVERE, e.getMessage(), e);
+                boxes = null;
+                tableView.setItems(null);
+                imageCanvas.setBoxes(null);
+                imageCanvas.paint(cbCansee.isSelected());
+                new Alert(AlertType.NONE, e.getMessage(), ButtonType.OK).show();
+                return;
+            }
             switch (type) {
                 case 0:
-                    boxes = this.boxPages.get(imageIndex);
+                    boxes = pageBoxes;
                     for (int i = 1; i < boxes.toList().size(); i++) {
                         if (boxes.toList().get(i).getWidth() == 0 || boxes.toList().get(i).getHeight() == 0) {
                             boxes.toList().get(i).setRect(new Rectangle2D(boxes.toList().get(i - 1).getX() + boxes.toList().get(i - 1).getWidth() + 5, boxes.toList().get(i - 1).getY(), boxes.toList().get(i - 1).getWidth(), boxes.toList().get(i - 1).getHeight()));
@@ -1199,7 +1421,7 @@ public class BoxEditorController implements Initializable {
                     }
                     break;
                 default:
-                    boxes = makeOrder(boxPages.get(imageIndex), intervalX, intervalY, type);
+                    boxes = makeOrder(pageBoxes, intervalX, intervalY, type);
                     break;
             }
 //            boxes.deselectAll();
@@ -1209,7 +1431,8 @@ public class BoxEditorController implements Initializable {
             tableSelectAction = false;
             tableView.setItems(boxes.toList());
             tableView.getSelectionModel().clearSelection();
-            boxes.toList().addListener((ListChangeListener<TessBox>) change -> boxChangedProp.set(true));
+            boxes.toList().removeListener(boxListListener); // page may have been shown before
+            boxes.toList().addListener(boxListListener);
             imageCanvas.setBoxes(boxes);
             imageCanvas.setTable(tableView, scrollPaneImage);
             imageCanvas.paint(cbCansee.isSelected());
@@ -41,11 +41,7 @@ import net.sourceforge.tessboxeditor.datamodel.TessBoxCollection;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 public class BoxEditorEditController extends BoxEditorController {
@@ -110,24 +106,24 @@ public class BoxEditorEditController extends BoxEditorController {
 
         double minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = 0, maxY = 0;
 
-        String chrs = "";
+        StringBuilder chrs = new StringBuilder();
         short page = 0;
-        int index = 0;
 
         for (TessBox box : selected) {
-            chrs += box.getCharacter();
+            chrs.append(box.getCharacter());
             page = box.getPage();
-            index = this.boxes.toList().indexOf(box);
             Rectangle2D rect = box.getRect();
             minX = Math.min(minX, rect.getMinX());
             minY = Math.min(minY, rect.getMinY());
             maxX = Math.max(maxX, rect.getMaxX());
             maxY = Math.max(maxY, rect.getMaxY());
-            this.boxes.remove(box);
         }
+        // the merged box takes the place of the last selected box once the others are removed
+        int index = this.boxes.indexOf(selected.get(selected.size() - 1)) - (selected.size() - 1);
+        this.boxes.removeAll(selected);
 
         if (chrs.length() > 0) {
-            TessBox newBox = new TessBox(chrs, new Rectangle2D(minX, minY, maxX - minX, maxY - minY), page);
+            TessBox newBox = new TessBox(chrs.toString(), new Rectangle2D(minX, minY, maxX - minX, maxY - minY), page);
             boxes.add(index, newBox);
             this.tableView.getSelectionModel().clearAndSelect(index);
         }
@@ -159,7 +155,7 @@ public class BoxEditorEditController extends BoxEditorController {
 //        }
 
         TessBox box = selected.get(0);
-        int index = this.boxes.toList().indexOf(box);
+        int index = this.boxes.indexOf(box);
         Rectangle2D rect = box.getRect();
         double w = rect.getWidth();
         double h = rect.getHeight();
@@ -206,7 +202,7 @@ public class BoxEditorEditController extends BoxEditorController {
         }
 
         TessBox box = selected.get(0);
-        int index = this.boxes.toList().indexOf(box);
+        int index = this.boxes.indexOf(box);
         index++;
         // offset the new box 15 pixel from the base one
         TessBox newBox = new TessBox(box.getCharacter(), new Rectangle2D(box.getX() + 15, box.getY(), box.getWidth(), box.getHeight()), box.getPage());
@@ -227,9 +223,7 @@ public class BoxEditorEditController extends BoxEditorController {
         }
 
         this.tableView.getSelectionModel().clearSelection();
-        for (TessBox box : selected) {
-            this.boxes.remove(box);
-        }
+        this.boxes.removeAll(selected);
 
         resetReadout();
         this.imageCanvas.paint(false);
@@ -343,14 +337,11 @@ public class BoxEditorEditController extends BoxEditorController {
                 }
 
                 List<BufferedImage> imageList = ImageIOHelper.getImageList(imageFile);
-                String str = readBoxFile(boxFile);
-                List<TessBoxCollection> boxPages = parseBoxString(str, imageList);
+                List<TessBoxCollection> boxPages = parseBoxes(boxFile, imageList);
                 performSegment(imageList, boxPages, instance);
 
                 // save boxes
-                try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(boxFile), StandardCharsets.UTF_8))) {
-                    out.write(formatOutputString(imageList, boxPages));
-                }
+                writeBoxFile(boxFile, page -> imageList.get(page).getHeight(), boxPages);
 
                 progress += tick;
                 updateProgress(Math.min(progress, 100), 100);
@@ -392,25 +383,33 @@ public class BoxEditorEditController extends BoxEditorController {
             // Perform text-line segmentation
             List<Rectangle> regions = instance.getSegmentedRegions(image, ITessAPI.TessPageIteratorLevel.RIL_TEXTLINE);
             TessBoxCollection boxesPerPage = boxPages.get(pageIndex); // boxes per page
-            for (Rectangle rect : regions) { // process each line
-                Rectangle2D rect2d = new Rectangle2D(rect.getMinX(), rect.getMinY(), rect.getWidth(), rect.getHeight());
-                TessBox lastBox = boxesPerPage.toList().stream().filter((r) -> {
-                    return rect2d.contains(r.getRect());
-                }).reduce((first, second) -> second).orElse(null);
-
-                if (lastBox == null) {
-                    continue;
+            final short page = pageIndex;
+            boxesPerPage.batch(edits -> {
+                List<TessBox> boxList = boxesPerPage.toList();
+                for (Rectangle rect : regions) { // process each line
+                    // last box of the line, found with its position
+                    int index = boxList.size() - 1;
+                    while (index >= 0 && !contains(rect, boxList.get(index))) {
+                        index--;
+                    }
+
+                    if (index < 0) {
+                        continue;
+                    }
+
+                    TessBox lastBox = boxList.get(index);
+                    edits.insert(index + 1, new TessBox("\t", lastBox.getX() + lastBox.getWidth() + 10, lastBox.getY(), lastBox.getWidth(), lastBox.getHeight(), page));
                 }
-
-                int index = boxesPerPage.toList().indexOf(lastBox);
-                Rectangle2D rect2 = lastBox.getRect();
-                Rectangle2D nRect = new Rectangle2D(rect2.getMaxX() + 10, rect2.getMinY(), rect2.getWidth(), rect2.getHeight());
-                boxesPerPage.add(index + 1, new TessBox("\t", nRect, pageIndex));
-            }
+            });
             pageIndex++;
         }
     }
 
+    private static boolean contains(Rectangle rect, TessBox box) {
+        return box.getX() >= rect.x && box.getX() + box.getWidth() <= rect.x + rect.width
+                && box.getY() >= rect.y && box.getY() + box.getHeight() <= rect.y + rect.height;
+    }
+
     public class ProgressMonitor {
 
         private final Stage dialogStage;
@@ -0,0 +1,202 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs TIFF/Box generation jobs on a fixed pool of worker threads, one job
+ * per output pair. Jobs report page progress and can be cancelled. The pages
+ * held in memory by running jobs are limited: each job waits for as many page
+ * permits as it has pages, up to an even share of the limit per worker, and
+ * draws no more pages at a time than it holds permits for. Permits are handed
+ * out in the order jobs ask for them.
+ */
+public class GenerationScheduler {
+
+    private final ExecutorService workers;
+    private final Semaphore pagePermits;
+    private final int pagesPerJob;
+    private final List<Job> jobs = new ArrayList<Job>();
+
+    /**
+     * Generation of one TIFF/Box pair. Progress is in pages drawn.
+     */
+    public class Job extends Task<File> implements TiffBoxGenerator.Monitor {
+
+        private final TiffBoxGenerator generator;
+        private final File textFile;
+        private final AtomicInteger pagesDrawn = new AtomicInteger();
+        private int pageCount;
+        private int permits;
+        private boolean finished;
+        private Runnable onFinished;
+
+        Job(TiffBoxGenerator generator, File textFile) {
+            this.generator = generator;
+            this.textFile = textFile;
+            updateMessage(textFile.getName());
+        }
+
+        /**
+         * Gets the text file the job generates from.
+         *
+         * @return the text file
+         */
+        public File getTextFile() {
+            return textFile;
+        }
+
+        /**
+         * Sets the action run on the FX thread once the job's worker has
+         * returned, whatever the outcome. A running job is cancelled at once
+         * but its worker stops only before its next page, so unlike the
+         * state handlers this is not run while files may still be written.
+         *
+         * @param onFinished the action
+         */
+        public void setOnFinished(Runnable onFinished) {
+            this.onFinished = onFinished;
+        }
+
+        /**
+         * Whether the job's worker has returned. Read on the FX thread.
+         *
+         * @return true if finished
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                Platform.runLater(() -> {
+                    finished = true;
+                    if (onFinished != null) {
+                        onFinished.run();
+                    }
+                });
+            }
+        }
+
+        @Override
+        protected File call() throws Exception {
+            generator.setMonitor(this);
+            generator.create();
+            return textFile;
+        }
+
+        @Override
+        public int pagesLaidOut(int pageCount) throws InterruptedException {
+            this.pageCount = pageCount;
+            updateProgress(0, pageCount);
+            int wanted = Math.min(pageCount, pagesPerJob);
+            pagePermits.acquire(wanted);
+            permits = wanted;
+            return wanted;
+        }
+
+        @Override
+        public void pageDrawn() {
+            updateProgress(pagesDrawn.incrementAndGet(), pageCount);
+        }
+
+        @Override
+        public void pagesReleased() {
+            pagePermits.release(permits);
+            permits = 0;
+        }
+
+        @Override
+        public boolean isStopped() {
+            return isCancelled();
+        }
+    }
+
+    /**
+     * Creates a scheduler with a worker per processor.
+     *
+     * @param maxPagesInFlight most pages that running jobs may hold at once
+     */
+    public GenerationScheduler(int maxPagesInFlight) {
+        this(Runtime.getRuntime().availableProcessors(), maxPagesInFlight);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param workerCount number of jobs to run at once
+     * @param maxPagesInFlight most pages that running jobs may hold at once
+     */
+    public GenerationScheduler(int workerCount, int maxPagesInFlight) {
+        workerCount = Math.max(1, workerCount);
+        maxPagesInFlight = Math.max(1, maxPagesInFlight);
+        this.pagesPerJob = Math.max(1, maxPagesInFlight / workerCount); // so that every worker can run
+        this.pagePermits = new Semaphore(maxPagesInFlight, true);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "TIFF/Box generator " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @param generator generator set up for the job
+     * @param textFile text file the job generates from
+     * @return the job
+     */
+    public synchronized Job submit(TiffBoxGenerator generator, File textFile) {
+        Job job = new Job(generator, textFile);
+        jobs.removeIf(Job::isDone);
+        jobs.add(job);
+        workers.execute(job);
+        return job;
+    }
+
+    /**
+     * Cancels queued and running jobs. Running jobs stop before their next
+     * page.
+     */
+    public synchronized void cancelAll() {
+        for (Job job : jobs) {
+            job.cancel(true);
+        }
+        jobs.clear();
+    }
+
+    /**
+     * Cancels all jobs and stops the workers.
+     */
+    public void shutdown() {
+        cancelAll();
+        workers.shutdownNow();
+    }
+}
@@ -20,7 +20,6 @@ import javafx.beans.Observable;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
@@ -53,13 +52,10 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.BreakIterator;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
-import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -82,6 +78,12 @@ public class ImageGeneratorController implements Initializable {
     @FXML
     private Button btnClear;
     @FXML
+    private Button btnCancel;
+    @FXML
+    private ProgressBar pbGenerate;
+    @FXML
+    private Label lblProgress;
+    @FXML
     private Button btnBrowseFontFolder;
     @FXML
     private HBox hbFontAttrib;
@@ -133,10 +135,14 @@ public class ImageGeneratorController implements Initializable {
     int startIndex;
     List<String> allText = new ArrayList<String>();
     List<List<String>> textPages = new ArrayList<List<String>>();
+    private final List<GenerationScheduler.Job> jobs = new ArrayList<GenerationScheduler.Job>();
+    private int pendingJobs; // background jobs not yet finished
+    private boolean jobsCancelled;
     BreakIterator breakIterator = BreakIterator.getCharacterInstance();
 
     private final static Logger logger = Logger.getLogger(ImageGeneratorController.class.getName());
-    public static final Executor executor = new ThreadPoolExecutor(5, 5, 0, TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>(100));
+    private static final int MAX_PAGES_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+    private final GenerationScheduler scheduler = new GenerationScheduler(MAX_PAGES_IN_FLIGHT);
 
     /**
      * Initializes the controller class.
@@ -373,6 +379,9 @@ public class ImageGeneratorController implements Initializable {
             } else {
                 generateTiffBox();
             }
+        } else if (event.getSource() == btnCancel) {
+            jobsCancelled = true;
+            scheduler.cancelAll();
         } else if (event.getSource() == btnClear) {
             this.taInput.clear();
             this.textFlow.getChildren().clear();
@@ -441,10 +450,7 @@ public class ImageGeneratorController implements Initializable {
             return; // not text file
         }
         try {
-            String content = new String(Files.readAllBytes(selectedFile.toPath()), StandardCharsets.UTF_8);
-            if (content.startsWith("\uFEFF")) {
-                content = content.substring(1); // remove BOM
-            }
+            String content = readTextFile(selectedFile);
             this.taInput.setText(content);
             Text text = (Text) taInput.lookup(".text");
             text.setLineSpacing((int) this.spnLeading.getValue());
@@ -457,82 +463,133 @@ public class ImageGeneratorController implements Initializable {
         }
     }
 
-    class GTask extends Task<File> {
-        String name;
-        String prefix;
-
-        public GTask(String name, String prefix) {
-            this.name = name;
-            this.prefix = prefix;
-        }
-
-        @Override
-        protected void succeeded() {
-
-            super.succeeded();
-
-            updateMessage("Succeeded");
-
-        }
-
-
-        @Override
-
-        protected void cancelled() {
-
-            super.cancelled();
-
-            updateMessage("Cancelled");
-
-        }
-
-
-        @Override
-
-        protected void failed() {
-
-            super.failed();
-
-            updateMessage("Failed");
-
-        }
-
-        @Override
-        protected File call() throws Exception {
-            doGenerator(prefix, name);
-            return null;
-        }
-    }
-
     /**
-     * Opens input text file.
+     * Generates TIFF/Box pairs for the text files in the output folder that
+     * do not have them yet, one job per text file and font. The jobs run in
+     * the background with {@link TiffBoxGenerator}, several at a time.
      */
     void openTextFile() {
+        String prefix = this.tfPrefix.getText();
         FileFilter fileFilter = pathname -> {
             if (pathname.getName().endsWith(".txt")) {
                 String name = pathname.getName().substring(0, pathname.getName().lastIndexOf("."));
-                File file = new File(pathname.getParent()+"\\"+this.tfPrefix.getText()+"." + this.tfFileName.getText().replace("0", name));
-                System.out.println(pathname.getPath());
-                System.out.println(file.getPath());
-                if (file.exists()) {
-                    return false;
-                } else {
-                    return true;
-                }
+                File file = new File(pathname.getParent(), prefix + "." + this.tfFileName.getText().replace("0", name));
+                return !file.exists();
             } else {
                 return false;
             }
         };
         File[] files = new File(outputDirectory).listFiles(fileFilter);
+        if (files == null || files.length == 0) {
+            btnGenerate.setDisable(false);
+            taInput.getScene().setCursor(Cursor.DEFAULT);
+            return;
+        }
+
+        String filePrefix = prefix.trim().length() > 0 ? prefix + "." : prefix;
+        List<Font> fonts = Collections.singletonList(fontGen);
+        jobs.clear();
         for (File file : files) {
-            this.taInput.clear();
-            this.textFlow.getChildren().clear();
-            System.gc();
-            openTextFile(file);
-            generateTiffBox(file.getName());
-          /*  GTask gTask = new GTask(file.getName(), this.tfPrefix.getText());
-            executor.execute(gTask);*/
+            String content;
+            try {
+                content = readTextFile(file);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+                continue;
+            }
+            String name = file.getName().substring(0, file.getName().lastIndexOf("."));
+            for (Font font : fonts) {
+                TiffBoxGenerator generator = new TiffBoxGenerator(content, toAwtFont(font), (int) this.spnW.getValue(), (int) this.spnH.getValue());
+                generator.setOutputFolder(new File(outputDirectory));
+                generator.setFileName(filePrefix + this.tfFileName.getText().replace("0", name));
+                generator.setTracking(this.spnTracking.getValue().floatValue());
+                generator.setLeading(this.spnLeading.getValue());
+                generator.setMargin(margin);
+                generator.setNoiseAmount((int) this.spnNoise.getValue());
+                generator.setAntiAliasing(this.chbAntiAliasing.isSelected());
+                GenerationScheduler.Job job = scheduler.submit(generator, file);
+                job.progressProperty().addListener(observable -> showProgress());
+                job.setOnFailed(event -> {
+                    Throwable e = job.getException();
+                    logger.log(Level.SEVERE, job.getTextFile().getName() + ": " + e.getMessage(), e);
+                });
+                job.setOnFinished(this::jobDone);
+                jobs.add(job);
+            }
+        }
+        pendingJobs = jobs.size();
+        jobsCancelled = false;
+        if (pendingJobs == 0) {
+            btnGenerate.setDisable(false);
+            taInput.getScene().setCursor(Cursor.DEFAULT);
+            return;
+        }
+        btnCancel.setDisable(false);
+        pbGenerate.setVisible(true);
+        showProgress();
+    }
+
+    /**
+     * Shows progress of the background jobs: finished jobs count whole,
+     * running jobs by the share of their pages drawn.
+     */
+    private void showProgress() {
+        double progress = 0;
+        int done = 0;
+        for (GenerationScheduler.Job job : jobs) {
+            if (job.isFinished()) {
+                progress++;
+                done++;
+            } else if (job.getProgress() > 0) {
+                progress += job.getProgress();
+            }
+        }
+        pbGenerate.setProgress(jobs.isEmpty() ? 0 : progress / jobs.size());
+        lblProgress.setText(String.format("%d/%d", done, jobs.size()));
+    }
+
+    /**
+     * Counts down background jobs as their workers return; after the last
+     * one, updates font_properties unless the batch was cancelled, and
+     * re-enables generating.
+     */
+    private void jobDone() {
+        showProgress();
+        if (--pendingJobs > 0) {
+            return;
+        }
+        btnCancel.setDisable(true);
+        pbGenerate.setVisible(false);
+        if (!jobsCancelled) {
+            String prefix = this.tfPrefix.getText();
+            if (prefix.trim().length() > 0) {
+                prefix += ".";
+            }
+            Utils.updateFontProperties(new File(outputDirectory), prefix + this.tfFileName.getText(), fontGen);
         }
+        btnGenerate.setDisable(false);
+        taInput.getScene().setCursor(Cursor.DEFAULT);
+    }
+
+    /**
+     * Reads a UTF-8 text file, without byte order mark.
+     */
+    static String readTextFile(File file) throws IOException {
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        if (content.startsWith("\uFEFF")) {
+            content = content.substring(1); // remove BOM
+        }
+        return content;
+    }
+
+    /**
+     * Gets the AWT font of the same family, style and size as an FX font.
+     */
+    static java.awt.Font toAwtFont(Font font) {
+        String style = font.getStyle();
+        int awtStyle = (style.contains("Bold") ? java.awt.Font.BOLD : java.awt.Font.PLAIN)
+                | (style.contains("Italic") ? java.awt.Font.ITALIC : java.awt.Font.PLAIN);
+        return new java.awt.Font(font.getFamily(), awtStyle, 1).deriveFont((float) font.getSize());
     }
 
     void generateTiffBox() {
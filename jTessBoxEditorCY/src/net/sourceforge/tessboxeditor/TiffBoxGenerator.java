@@ -0,0 +1,407 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor;
+
+import net.sourceforge.tessboxeditor.datamodel.BoxFileWriter;
+import net.sourceforge.tessboxeditor.datamodel.TessBox;
+import net.sourceforge.tessboxeditor.datamodel.TessBoxCollection;
+import net.sourceforge.tessboxeditor.utilities.GlyphAtlas;
+import net.sourceforge.tessboxeditor.utilities.ImageUtils;
+import net.sourceforge.tessboxeditor.utilities.TiffPageWriter;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.stream.IntStream;
+
+import static net.sourceforge.tessboxeditor.utilities.Utils.commitPartFile;
+import static net.sourceforge.tessboxeditor.utilities.Utils.partFile;
+
+/**
+ * Generates TIFF/Box training pairs with Java2D, as {@link TiffBoxGeneratorFX}
+ * does with a JavaFX <code>TextFlow</code>. Text is broken into graphemes,
+ * wrapped at word boundaries and paginated, and each page is composed in its
+ * own image from a {@link GlyphAtlas} shared with other generators of the
+ * same font, so each grapheme is rendered once. No scene graph or FX thread
+ * is involved. Instances are independent of each other and may run on any
+ * thread; the pages of one instance are drawn in parallel, a batch at a time,
+ * and appended to the TIFF and box files as each batch completes.
+ */
+public class TiffBoxGenerator {
+
+    private final String text;
+    private final Font font;
+    private final int width, height;
+    private int noiseAmount;
+    private long noiseSeed = new SplittableRandom().nextLong();
+    private int margin = 100;
+    private String fileName = "fontname.exp0";
+    private File outputFolder;
+    private float tracking = TextAttribute.TRACKING_LOOSE; // 0.04
+    private int leading = 12;
+    private boolean isAntiAliased;
+    private boolean tightenBoxes = true;
+    private Monitor monitor;
+
+    /**
+     * Follows the progress of {@link #create()} and can hold it back or stop
+     * it. Called on the generating threads.
+     */
+    public interface Monitor {
+
+        /**
+         * Called when the text has been laid out, before any page is drawn.
+         * May block until pages can be held in memory.
+         *
+         * @param pageCount number of pages
+         * @return most pages to hold at once
+         * @throws InterruptedException if interrupted while waiting
+         */
+        int pagesLaidOut(int pageCount) throws InterruptedException;
+
+        /**
+         * Called after each page is drawn.
+         */
+        void pageDrawn();
+
+        /**
+         * Called when the pages are no longer held, after writing them or on
+         * failure.
+         */
+        void pagesReleased();
+
+        /**
+         * Whether generation should stop before the next page.
+         *
+         * @return true to stop
+         */
+        boolean isStopped();
+    }
+
+    /**
+     * Grapheme placed on a page, with the baseline origin of its cell.
+     */
+    private static class Glyph {
+
+        final String chrs;
+        final float x;
+        final float y;
+        final float advance;
+
+        Glyph(String chrs, float x, float y, float advance) {
+            this.chrs = chrs;
+            this.x = x;
+            this.y = y;
+            this.advance = advance;
+        }
+    }
+
+    /**
+     * Creates a generator.
+     *
+     * @param text training text; line breaks start new lines
+     * @param font font, in the point size shown to the user
+     * @param width page width in pixels
+     * @param height page height in pixels
+     */
+    public TiffBoxGenerator(String text, Font font, int width, int height) {
+        this.text = text;
+        this.font = font.deriveFont(font.getSize2D() * 4); // adjustment, as for TiffBoxGeneratorFX
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates the TIFF and box files.
+     *
+     * @throws IOException if a file cannot be written
+     * @throws InterruptedException if interrupted while waiting to draw
+     * @throws CancellationException if stopped by the monitor
+     */
+    public void create() throws IOException, InterruptedException {
+        GlyphAtlas atlas = GlyphAtlas.get(font, isAntiAliased);
+        List<List<Glyph>> pages = layoutPages(atlas);
+        int batchSize = Runtime.getRuntime().availableProcessors();
+        if (monitor != null) {
+            batchSize = monitor.pagesLaidOut(pages.size());
+        }
+        try {
+            writePages(pages, atlas, Math.max(1, batchSize));
+        } finally {
+            if (monitor != null) {
+                monitor.pagesReleased();
+            }
+        }
+    }
+
+    /**
+     * Draws pages a batch at a time and appends each batch to the files, so
+     * no more than a batch of pages is held. The files are written under
+     * temporary names and moved into place when complete; on failure or
+     * cancellation they are deleted, leaving any earlier output as it was.
+     */
+    private void writePages(List<List<Glyph>> pages, GlyphAtlas atlas, int batchSize) throws IOException {
+        File tiffFile = new File(outputFolder, fileName + ".tif");
+        File boxFile = new File(outputFolder, fileName + ".box");
+        SplittableRandom seeds = new SplittableRandom(noiseSeed);
+        boolean complete = false;
+        try {
+            try (TiffPageWriter tiff = new TiffPageWriter(partFile(tiffFile), (isAntiAliased || noiseAmount != 0) ? "LZW" : "CCITT T.6"); // CCITT T.6 for bitonal; LZW for others
+                    BoxFileWriter out = new BoxFileWriter(partFile(boxFile))) {
+                for (int start = 0; start < pages.size(); start += batchSize) {
+                    int batchStart = start;
+                    BufferedImage[] images = new BufferedImage[Math.min(batchSize, pages.size() - start)];
+                    TessBoxCollection[] boxPages = new TessBoxCollection[images.length];
+                    IntStream.range(0, images.length).parallel().forEach(i -> {
+                        if (monitor != null && monitor.isStopped()) {
+                            throw new CancellationException();
+                        }
+                        boxPages[i] = new TessBoxCollection();
+                        images[i] = drawPage(pages.get(batchStart + i), boxPages[i], atlas);
+                        if (monitor != null) {
+                            monitor.pageDrawn();
+                        }
+                    });
+
+                    for (int i = 0; i < images.length; i++) {
+                        BufferedImage image = images[i];
+                        if (noiseAmount != 0) {
+                            image = ImageUtils.addNoise(image, noiseAmount, seeds.nextLong());
+                        }
+                        tiff.writePage(image);
+                        out.writePage(boxPages[i], batchStart + i, height);
+                    }
+                }
+            }
+            if (monitor != null && monitor.isStopped()) {
+                throw new CancellationException();
+            }
+            // TIFF last, as its presence marks the pair as generated
+            commitPartFile(boxFile);
+            commitPartFile(tiffFile);
+            complete = true;
+        } finally {
+            if (!complete) {
+                partFile(tiffFile).delete();
+                partFile(boxFile).delete();
+            }
+        }
+    }
+
+    /**
+     * Breaks the text into graphemes and places them on lines and pages.
+     */
+    private List<List<Glyph>> layoutPages(GlyphAtlas atlas) {
+        FontRenderContext frc = atlas.getFontRenderContext();
+        float ascent = font.getLineMetrics("Mg", frc).getAscent();
+        float descent = font.getLineMetrics("Mg", frc).getDescent();
+        float lineHeight = ascent + descent + leading + 4; // adjustment, as for TiffBoxGeneratorFX
+        float maxX = width - margin;
+        float trackingSpace = tracking * font.getSize2D();
+
+        // lines of graphemes with their advances
+        List<List<Glyph>> lines = new ArrayList<List<Glyph>>();
+        List<Glyph> line = new ArrayList<Glyph>();
+        lines.add(line);
+        float x = margin;
+        BreakIterator graphemes = BreakIterator.getCharacterInstance();
+        graphemes.setText(text);
+        int start = graphemes.first();
+        for (int end = graphemes.next(); end != BreakIterator.DONE; start = end, end = graphemes.next()) {
+            String ch = text.substring(start, end);
+            if (ch.equals("\n") || ch.equals("\r\n") || ch.equals("\r")) {
+                line = new ArrayList<Glyph>();
+                lines.add(line);
+                x = margin;
+                continue;
+            }
+            float advance = atlas.get(ch).getAdvance() + trackingSpace;
+            if (x + advance > maxX && !line.isEmpty() && !Character.isWhitespace(ch.charAt(0))) {
+                // wrap after the last space of the line, or here if none
+                int wrap = line.size();
+                while (wrap > 0 && !Character.isWhitespace(line.get(wrap - 1).chrs.charAt(0))) {
+                    wrap--;
+                }
+                List<Glyph> carried = new ArrayList<Glyph>(line.subList(wrap > 0 ? wrap : line.size(), line.size()));
+                line.subList(wrap > 0 ? wrap : line.size(), line.size()).clear();
+                line = new ArrayList<Glyph>();
+                lines.add(line);
+                x = margin;
+                for (Glyph glyph : carried) {
+                    line.add(new Glyph(glyph.chrs, x, 0, glyph.advance));
+                    x += glyph.advance;
+                }
+            }
+            line.add(new Glyph(ch, x, 0, advance));
+            x += advance;
+        }
+
+        // pages of lines, with baselines set
+        int linesPerPage = Math.max(1, (int) ((height - 2 * margin - ascent - descent) / lineHeight) + 1);
+        List<List<Glyph>> pages = new ArrayList<List<Glyph>>();
+        for (int i = 0; i < lines.size(); i += linesPerPage) {
+            List<Glyph> page = new ArrayList<Glyph>();
+            for (int j = i; j < Math.min(lines.size(), i + linesPerPage); j++) {
+                float baseline = margin + ascent + (j - i) * lineHeight;
+                for (Glyph glyph : lines.get(j)) {
+                    page.add(new Glyph(glyph.chrs, glyph.x, baseline, glyph.advance));
+                }
+            }
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Composes a page from the atlas and collects the boxes of its graphemes.
+     * Graphemes are placed at whole pixels, so their boxes are the cached ones
+     * moved there.
+     */
+    private BufferedImage drawPage(List<Glyph> page, TessBoxCollection boxCol, GlyphAtlas atlas) {
+        BufferedImage bi = new BufferedImage(width, height, isAntiAliased ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_BYTE_BINARY);
+        Arrays.fill(((DataBufferByte) bi.getRaster().getDataBuffer()).getData(), (byte) 0xFF); // white
+        short pageNum = 0;
+        for (Glyph glyph : page) {
+            GlyphAtlas.Entry entry = atlas.get(glyph.chrs);
+            int x = Math.round(glyph.x);
+            int y = Math.round(glyph.y);
+            entry.drawTo(bi, x, y);
+            if (Character.isWhitespace(glyph.chrs.charAt(0))) {
+                // skip spaces
+                continue;
+            }
+
+            Rectangle rect = tightenBoxes ? entry.getInkBounds() : null;
+            if (rect == null) {
+                rect = entry.getOutlineBounds();
+            }
+            if (rect.width <= 0 || rect.height <= 0) {
+                // skip bad boxes
+                continue;
+            }
+            rect.translate(x, y);
+            boxCol.add(new TessBox(glyph.chrs, rect.x, rect.y, rect.width, rect.height, pageNum));
+        }
+        return bi;
+    }
+
+    /**
+     * Sets the monitor of progress.
+     *
+     * @param monitor the monitor, or null for none
+     */
+    public void setMonitor(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Sets output filename.
+     *
+     * @param fileName the fileName to set
+     */
+    public void setFileName(String fileName) {
+        if (fileName != null && fileName.length() > 0) {
+            int index = fileName.lastIndexOf(".");
+            this.fileName = index > -1 ? fileName.substring(0, index) : fileName;
+        }
+    }
+
+    /**
+     * Sets letter tracking (letter spacing), in ems.
+     *
+     * @param tracking the tracking to set
+     */
+    public void setTracking(float tracking) {
+        this.tracking = tracking;
+    }
+
+    /**
+     * Sets line spacing.
+     *
+     * @param leading the leading to set
+     */
+    public void setLeading(int leading) {
+        this.leading = leading;
+    }
+
+    /**
+     * Sets output folder.
+     *
+     * @param outputFolder the outputFolder to set
+     */
+    public void setOutputFolder(File outputFolder) {
+        this.outputFolder = outputFolder;
+    }
+
+    /**
+     * Enables text anti-aliasing.
+     *
+     * @param enabled on or off
+     */
+    public void setAntiAliasing(boolean enabled) {
+        this.isAntiAliased = enabled;
+    }
+
+    /**
+     * Sets whether boxes are fitted to the ink of their characters, rather
+     * than to the outlines of the glyphs. Defaults to true.
+     *
+     * @param tightenBoxes the tightenBoxes to set
+     */
+    public void setTightenBoxes(boolean tightenBoxes) {
+        this.tightenBoxes = tightenBoxes;
+    }
+
+    /**
+     * Sets amount of noise to be injected to the generated image.
+     *
+     * @param noiseAmount the noiseAmount to set
+     */
+    public void setNoiseAmount(int noiseAmount) {
+        this.noiseAmount = noiseAmount;
+    }
+
+    /**
+     * Sets seed of the noise, so that the same text, settings and seed
+     * produce the same images. Defaults to a random seed for each generator,
+     * so each file and each run gets its own noise.
+     *
+     * @param noiseSeed the noiseSeed to set
+     */
+    public void setNoiseSeed(long noiseSeed) {
+        this.noiseSeed = noiseSeed;
+    }
+
+    /**
+     * Sets margin of text within image.
+     *
+     * @param margin the margin to set
+     */
+    public void setMargin(int margin) {
+        this.margin = margin;
+    }
+}
@@ -15,7 +15,6 @@
  */
 package net.sourceforge.tessboxeditor;
 
-import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
@@ -23,6 +22,8 @@ import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.SnapshotParameters;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
@@ -30,44 +31,47 @@ import javafx.scene.shape.Shape;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
-import net.sourceforge.tess4j.util.ImageIOHelper;
+import net.sourceforge.tessboxeditor.datamodel.BoxFileWriter;
 import net.sourceforge.tessboxeditor.datamodel.TessBox;
 import net.sourceforge.tessboxeditor.datamodel.TessBoxCollection;
 import net.sourceforge.tessboxeditor.utilities.ImageUtils;
+import net.sourceforge.tessboxeditor.utilities.InkBounds;
+import net.sourceforge.tessboxeditor.utilities.TiffPageWriter;
 import net.sourceforge.vietocr.util.Utils;
 
 import java.awt.*;
 import java.awt.font.TextAttribute;
 import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
+import java.awt.image.DataBufferByte;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static net.sourceforge.tessboxeditor.utilities.Utils.commitPartFile;
 import static net.sourceforge.tessboxeditor.utilities.Utils.deriveFont;
+import static net.sourceforge.tessboxeditor.utilities.Utils.partFile;
 
 public class TiffBoxGeneratorFX {
 
-    static final String EOL = System.getProperty("line.separator");
     private final List<List<String>> textPages;
-    private final List<BufferedImage> imagePages = new ArrayList<>();
-    private final List<TessBoxCollection> boxPages = new ArrayList<>();
     private final Font font;
     private int width, height;
     private int noiseAmount;
+    private long noiseSeed = new SplittableRandom().nextLong();
     private int margin = 100;
     private String fileName = "fontname.exp0";
     private File outputFolder;
-    private final int COLOR_WHITE = java.awt.Color.WHITE.getRGB();
-    private final int COLOR_BLACK = java.awt.Color.BLACK.getRGB();
     private float tracking = TextAttribute.TRACKING_LOOSE; // 0.04
     private int leading = 12;
     private boolean isAntiAliased;
+    private boolean tightenBoxes = true;
+    private int threshold = InkBounds.DEFAULT_THRESHOLD;
+    private WritableImage snapshot; // reused for pages of the same size
+    private int[] rowPixels;
     private final File baseDir = Utils.getBaseDir(TiffBoxGeneratorFX.this);
     private final TextFlow textFlow;
 
@@ -85,40 +89,34 @@ public class TiffBoxGeneratorFX {
         textFlow.setLineSpacing(leading + 4); // adjustment
     }
 
+    /**
+     * Creates the TIFF and box files. Each page is appended to both files as
+     * soon as it is drawn, so only one page is held at a time. The files are
+     * written under temporary names and moved into place when complete; on
+     * failure they are deleted.
+     */
     public void create() {
-        this.layoutPages();
-        this.saveMultipageTiff();
-        this.saveBoxFile();
+        File tiffFile = new File(outputFolder, fileName + ".tif");
+        File boxFile = new File(outputFolder, fileName + ".box");
+        try {
+            try (TiffPageWriter tiff = new TiffPageWriter(partFile(tiffFile), (isAntiAliased || noiseAmount != 0) ? "LZW" : "CCITT T.6"); // CCITT T.6 for bitonal; LZW for others
+                    BoxFileWriter boxes = new BoxFileWriter(partFile(boxFile))) {
+                this.layoutPages(tiff, boxes);
+            }
+            // TIFF last, as its presence marks the pair as generated
+            commitPartFile(boxFile);
+            commitPartFile(tiffFile);
+        } catch (Exception e) {
+            partFile(tiffFile).delete();
+            partFile(boxFile).delete();
+            logger.log(Level.SEVERE, e.getMessage(), e);
+        }
     }
 
     String createFileName(Font font) {
         return font.getFamily().replace(" ", "").toLowerCase() + (font.getStyle().contains("Bold") ? "b" : "") + (font.getStyle().contains("Italic") ? "i" : "");
     }
 
-    /**
-     * Formats box content.
-     *
-     * @return
-     */
-    private String formatOutputString() {
-        StringBuilder sb = new StringBuilder();
-//        String combiningSymbols = readCombiningSymbols();
-        for (short pageIndex = 0; pageIndex < imagePages.size(); pageIndex++) {
-            TessBoxCollection boxCol = boxPages.get(pageIndex);
-//            boxCol.setCombiningSymbols(combiningSymbols);
-//            boxCol.combineBoxes();
-
-            for (TessBox box : boxCol.toList()) {
-                Rectangle2D rect = box.getRect();
-                sb.append(String.format("%s %.0f %.0f %.0f %.0f %d", box.getCharacter(), rect.getMinX(), height - rect.getMinY() - rect.getHeight(), rect.getMinX() + rect.getWidth(), height - rect.getMinY(), pageIndex)).append(EOL);
-            }
-        }
-//        if (isTess2_0Format) {
-//            return sb.toString().replace(" 0" + EOL, EOL); // strip the ending zeroes
-//        }
-        return sb.toString();
-    }
-
     /**
      * Gets bounding box of a Text node.
      *
@@ -134,105 +132,35 @@ public class TiffBoxGeneratorFX {
     }
 
     /**
-     * Tightens bounding box in four directions b/c Java cannot produce bounding
-     * boxes as tight as Tesseract can. Exam only the first pixel on each side.
+     * Fits the bounding box of a Text node to its ink on the page image, for
+     * boxes as tight as Tesseract makes them. Falls back to the outline
+     * bounds if no ink is found within the node.
      *
-     * @param rect
-     * @param bi
+     * @param text
+     * @param ink ink of the page image
+     * @return bounding box
      */
-    private Bounds tightenBoundingBox(Bounds rectShape, BufferedImage bi) {
-        java.awt.Rectangle rect = new java.awt.Rectangle((int) rectShape.getMinX(), (int) rectShape.getMinY(), (int) Math.ceil(rectShape.getWidth()), (int) Math.ceil(rectShape.getHeight()));
-
-        // left
-        int endX = rect.x + 2;
-        outerLeft:
-        for (int x = rect.x; x < endX; x++) {
-            for (int y = rect.y; y < rect.y + rect.height; y++) {
-                int color = bi.getRGB(x, y);
-                if (color == COLOR_BLACK) {
-                    break outerLeft;
-                }
-            }
-            rect.x++;
-//            rect.width--;
-        }
-
-        // right
-        endX = rect.x + rect.width - 4;
-        outerRight:
-        for (int x = rect.x + rect.width; x > endX; x--) {
-            for (int y = rect.y; y < rect.y + rect.height; y++) {
-                int color = bi.getRGB(x, y);
-                if (color == COLOR_BLACK) {
-                    break outerRight;
-                }
-            }
-            rect.width = x - rect.x + 1;
-        }
-
-        //TODO: Need to account for Java's incorrect over-tightening the top of the bounding box
-        // Need to move the top up by 1px and increase the height by 1px
-        // top
-        int endY = rect.y + 3;
-        int startY = rect.y - 1;
-        outerTop:
-        for (int y = startY; y < endY; y++) {
-            for (int x = rect.x; x < rect.x + rect.width; x++) {
-                int color = bi.getRGB(x, y);
-                if (color == COLOR_BLACK) {
-                    if (y == startY) {
-                        rect.y--;
-//                        rect.height++;
-                        continue outerTop;
-                    } else {
-                        break outerTop;
-                    }
-                }
-            }
-            if (y != startY) {
-                rect.y++;
-            }
-        }
-
-        // bottom
-        endY = rect.y + rect.height - 4;
-        outerBottom:
-        for (int y = rect.y + rect.height - 1; y > endY; y--) {
-            for (int x = rect.x; x < rect.x + rect.width; x++) {
-                int color = bi.getRGB(x, y);
-                if (color == COLOR_BLACK) {
-                    break outerBottom;
-                }
-            }
-            rect.height--;
+    Bounds fitToInk(Text text, InkBounds ink) {
+        Bounds tb = text.getBoundsInParent();
+        int minX = (int) Math.floor(tb.getMinX());
+        int minY = (int) Math.floor(tb.getMinY());
+        java.awt.Rectangle rect = ink.tighten(new java.awt.Rectangle(minX, minY,
+                (int) Math.ceil(tb.getMaxX()) - minX, (int) Math.ceil(tb.getMaxY()) - minY));
+        if (rect == null) {
+            return getBoundingBox(text);
         }
-
         return new BoundingBox(rect.x, rect.y, rect.width, rect.height);
     }
 
-    /**
-     * Creates box file.
-     */
-    private void saveBoxFile() {
-        try {
-            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outputFolder, fileName + ".box")), StandardCharsets.UTF_8))) {
-                out.write(formatOutputString());
-            }
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, e.getMessage(), e);
-        }
-    }
-
     /**
      * Add Text nodes to TextFlow, which is one per page.
      */
-    private void layoutPages() {
-        boxPages.clear();
-        imagePages.clear();
-
+    private void layoutPages(TiffPageWriter tiff, BoxFileWriter boxes) throws IOException {
         Scene scene = new Scene(textFlow, width, height);
+        SplittableRandom seeds = new SplittableRandom(noiseSeed);
 
-        for (List<String> textPage : textPages) {
+        for (short pageIndex = 0; pageIndex < textPages.size(); pageIndex++) {
+            List<String> textPage = textPages.get(pageIndex);
             List<Text> texts = new ArrayList<Text>();
             textFlow.getChildren().clear();
 
@@ -253,27 +181,31 @@ public class TiffBoxGeneratorFX {
 //        stage.setTitle("TIFF/Boxes");
 //        stage.setScene(scene);
 //        stage.show();
-            drawPage();
+            drawPage(tiff, boxes, pageIndex, seeds.nextLong());
         }
     }
 
     /**
-     * Takes snapshot of each text flow and store as <code>BufferedImage</code>.
+     * Takes snapshot of each text flow and writes it and its boxes as a page.
      */
-    private void drawPage() {
-        BufferedImage bi;// = new BufferedImage(width, height, isAntiAliased ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_BYTE_BINARY);
+    private void drawPage(TiffPageWriter tiff, BoxFileWriter boxes, short pageIndex, long seed) throws IOException {
         final SnapshotParameters snapshotParameters = new SnapshotParameters();
         snapshotParameters.setFill(Color.WHITE);
 
-        WritableImage snapshot = textFlow.snapshot(snapshotParameters, null);
-        bi = SwingFXUtils.fromFXImage(snapshot, null);
-        width = bi.getWidth();
-        height = bi.getHeight();
-        bi = redraw(bi);
-        imagePages.add(bi);
+        // snapshot size, as the snapshot works it out
+        Bounds flowBounds = textFlow.getBoundsInParent();
+        int snapshotWidth = (int) Math.ceil(flowBounds.getMaxX()) - (int) Math.floor(flowBounds.getMinX());
+        int snapshotHeight = (int) Math.ceil(flowBounds.getMaxY()) - (int) Math.floor(flowBounds.getMinY());
+        if (snapshot != null && (snapshot.getWidth() != snapshotWidth || snapshot.getHeight() != snapshotHeight)) {
+            snapshot = null;
+        }
+        snapshot = textFlow.snapshot(snapshotParameters, snapshot);
+        width = (int) snapshot.getWidth();
+        height = (int) snapshot.getHeight();
+        BufferedImage bi = reduce(snapshot.getPixelReader(), width, height);
 
         TessBoxCollection boxCol = new TessBoxCollection(); // for each page
-        boxPages.add(boxCol);
+        InkBounds ink = tightenBoxes ? new InkBounds(bi) : null;
         short pageNum = 0;
         List<Node> nodes = textFlow.getChildren();
         for (int i = 0; i < nodes.size(); i++) {
@@ -285,50 +217,67 @@ public class TiffBoxGeneratorFX {
             }
 
             // get bounding box for each character
-            Bounds bounds = getBoundingBox(text);
+            Bounds bounds = ink != null ? fitToInk(text, ink) : getBoundingBox(text);
 //            System.out.println(bounds);
             if (bounds.getWidth() <= 0 || bounds.getHeight() <= 0) {
                 // skip bad boxes
                 continue;
             }
 
-//            bounds = tightenBoundingBox(bounds, bi);
             boxCol.add(new TessBox(ch, new Rectangle2D(bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight()), pageNum));
         }
-    }
 
-    /**
-     * Reduces bit depth of 32bpp snapshot from to 8bpp or 1bpp depending on
-     * anti-aliased mode selection.
-     *
-     * @param bi
-     * @return
-     */
-    BufferedImage redraw(BufferedImage bi) {
-        BufferedImage newImage = new BufferedImage(bi.getWidth(), bi.getHeight(), isAntiAliased ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_BYTE_BINARY);
-        Graphics2D g2d = newImage.createGraphics();
-        g2d.drawImage(bi, 0, 0, null);
-        g2d.dispose();
-        return newImage;
+        if (noiseAmount != 0) {
+            bi = ImageUtils.addNoise(bi, noiseAmount, seed);
+        }
+        tiff.writePage(bi);
+//        String combiningSymbols = readCombiningSymbols();
+//        boxCol.setCombiningSymbols(combiningSymbols);
+//        boxCol.combineBoxes();
+        boxes.writePage(boxCol, pageIndex, height);
     }
 
     /**
-     * Creates a multi-page TIFF image.
+     * Reduces the 32bpp snapshot to 8bpp or 1bpp depending on anti-aliased
+     * mode selection, writing the bytes of the page raster directly a row at
+     * a time. Grey levels are the luma of the pixels; for 1bpp, levels below
+     * the threshold are black.
+     *
+     * @param reader pixels of the snapshot
+     * @param width
+     * @param height
+     * @return page image
      */
-    private void saveMultipageTiff() {
-        try {
-            File tiffFile = new File(outputFolder, fileName + ".tif");
-            tiffFile.delete();
-            BufferedImage[] images = imagePages.toArray(new BufferedImage[imagePages.size()]);
-            if (noiseAmount != 0) {
-                for (int i = 0; i < images.length; i++) {
-                    images[i] = ImageUtils.addNoise(images[i], noiseAmount);
+    BufferedImage reduce(PixelReader reader, int width, int height) {
+        BufferedImage bi = new BufferedImage(width, height, isAntiAliased ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_BYTE_BINARY);
+        byte[] data = ((DataBufferByte) bi.getRaster().getDataBuffer()).getData();
+        if (rowPixels == null || rowPixels.length < width) {
+            rowPixels = new int[width];
+        }
+        int stride = isAntiAliased ? width : (width + 7) >> 3;
+        for (int y = 0; y < height; y++) {
+            reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbPreInstance(), rowPixels, 0, width); // opaque, so not premultiplied in effect
+            int row = y * stride;
+            if (isAntiAliased) {
+                for (int x = 0; x < width; x++) {
+                    data[row + x] = (byte) luma(rowPixels[x]);
+                }
+            } else {
+                // index 1 is white; eight pixels are packed per byte
+                for (int x = 0; x < width; x += 8) {
+                    int bits = 0;
+                    for (int i = x, end = Math.min(width, x + 8); i < end; i++) {
+                        bits |= (luma(rowPixels[i]) >= threshold ? 0x80 : 0) >> (i - x);
+                    }
+                    data[row + (x >> 3)] = (byte) bits;
                 }
             }
-            ImageIOHelper.mergeTiff(images, tiffFile, (isAntiAliased || noiseAmount != 0) ? "LZW" : "CCITT T.6");  // CCITT T.6 for bitonal; LZW for others);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, e.getMessage(), e);
         }
+        return bi;
+    }
+
+    private static int luma(int argb) {
+        return (77 * ((argb >> 16) & 0xFF) + 150 * ((argb >> 8) & 0xFF) + 29 * (argb & 0xFF) + 128) >> 8;
     }
 
     /**
@@ -381,6 +330,26 @@ public class TiffBoxGeneratorFX {
         this.isAntiAliased = enabled;
     }
 
+    /**
+     * Sets whether boxes are fitted to the ink of their characters, rather
+     * than to the outlines of the glyphs. Defaults to true.
+     *
+     * @param tightenBoxes the tightenBoxes to set
+     */
+    public void setTightenBoxes(boolean tightenBoxes) {
+        this.tightenBoxes = tightenBoxes;
+    }
+
+    /**
+     * Sets grey level below which pixels are black when anti-aliasing is off.
+     * Defaults to 128.
+     *
+     * @param threshold the threshold to set
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
     /**
      * Sets amount of noise to be injected to the generated image.
      *
@@ -390,6 +359,17 @@ public class TiffBoxGeneratorFX {
         this.noiseAmount = noiseAmount;
     }
 
+    /**
+     * Sets seed of the noise, so that the same text, settings and seed
+     * produce the same images. Defaults to a random seed for each generator,
+     * so each file and each run gets its own noise.
+     *
+     * @param noiseSeed the noiseSeed to set
+     */
+    public void setNoiseSeed(long noiseSeed) {
+        this.noiseSeed = noiseSeed;
+    }
+
     /**
      * Sets margin of text within image.
      *
@@ -15,9 +15,14 @@
  */
 package net.sourceforge.tessboxeditor.control;
 
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.event.EventHandler;
+import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ScrollPane;
@@ -25,16 +30,60 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import net.sourceforge.tessboxeditor.datamodel.BoxChangeListener;
 import net.sourceforge.tessboxeditor.datamodel.TessBox;
 import net.sourceforge.tessboxeditor.datamodel.TessBoxCollection;
+import net.sourceforge.tessboxeditor.utilities.ImagePageList;
+import net.sourceforge.tessboxeditor.utilities.ImagePyramid;
+import net.sourceforge.tessboxeditor.utilities.LruCache;
 import net.sourceforge.vietocr.util.Utils;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public class ImageCanvas extends Canvas {
+/**
+ * Page image with boxes drawn over it, in three layers: the page, drawn by
+ * the scene graph once per page; the box outlines; and the character labels.
+ * The overlay layers cover only the scroll viewport and are repainted
+ * independently of the page and of each other.
+ * <p>
+ * A page too large for one image is shown as the tiles that are in the
+ * viewport, loaded in the background as they scroll into view.
+ */
+public class ImageCanvas extends Pane {
+
+    private static final int MAX_DIRTY_REGIONS = 64;
+    private static final double LABEL_FONT_SIZE = 20;
+    private static final double LABEL_REACH = 8 * LABEL_FONT_SIZE; // how far labels of boxes near a region may extend into it
+    private static final double MARGIN = 2; // covers the stroke of a selected box, in screen pixels
+    private static final double MIN_ZOOM = 0.125;
+    private static final double MAX_ZOOM = 8;
+    private static final double ZOOM_STEP = 1.25;
+    private static final Font LABEL_FONT = new Font(LABEL_FONT_SIZE);
+    private static final long LABEL_CACHE_BUDGET = 16L * 1024 * 1024;
+    private static final ExecutorService tileLoader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Tile loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final static Logger logger = Logger.getLogger(ImageCanvas.class.getName());
 
     private TessBoxCollection boxes;
     private TableView tableView;
@@ -45,18 +94,102 @@ public class ImageCanvas extends Canvas {
     TessBox prevBox;
     boolean installed;
     private ScrollPane parent;
+    private final List<Rectangle2D> dirtyRegions = new ArrayList<Rectangle2D>();
+    private boolean fullRepaint = true;
+    private boolean lastCanSee;
+    private boolean labelsPainted;
+    private final ImageView pageLayer = new ImageView();
+    private final Canvas boxLayer = new Canvas();
+    private final Canvas labelLayer = new Canvas();
+    private Rectangle2D overlayArea; // part of the page the overlay layers cover
+    private double zoom = 1;
+    private Image[] levels; // the image and its downsampled copies, once built
+    private double pageWidth;
+    private double pageHeight;
+    private ImagePageList tiledPages; // source of the page when it is tiled
+    private int tiledPageIndex;
+    private final Pane tileLayer = new Pane();
+    private Map<Long, ImageView> tileViews = new HashMap<Long, ImageView>();
+    private final Set<Long> pendingTiles = new HashSet<Long>();
+    private volatile VisibleTiles visibleTiles; // read by the tile loader
+    private boolean tilesChanged;
+    private final LruCache<String, LabelImage> labelImages = new LruCache<String, LabelImage>(LABEL_CACHE_BUDGET,
+            label -> (long) label.image.getWidth() * (long) label.image.getHeight() * 4);
+    private final InvalidationListener viewportListener = observable -> requestPaint(lastCanSee);
+    private boolean paintRequested;
+    private boolean requestedCanSee;
+    private final AnimationTimer renderTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            paintRequested = false;
+            paint(requestedCanSee);
+        }
+    };
+    private final BoxChangeListener boxChangeListener = (box, character, x, y, width, height) -> {
+        // the old label may reach past the new one
+        addDirtyRegion(character, x, y, width, height);
+        if (box.getX() != x || box.getY() != y || box.getWidth() != width || box.getHeight() != height
+                || !Objects.equals(box.getCharacter(), character)) {
+            addDirtyRegion(box.getCharacter(), box.getX(), box.getY(), box.getWidth(), box.getHeight());
+        }
+    };
+
+    /**
+     * Rendered label and the distance from its top to the text baseline.
+     */
+    private static class LabelImage {
+
+        final Image image;
+        final double baseline;
+
+        LabelImage(Image image, double baseline) {
+            this.image = image;
+            this.baseline = baseline;
+        }
+    }
+
+    /**
+     * Range of tiles in the viewport.
+     */
+    private static class VisibleTiles {
+
+        final ImagePageList pages;
+        final int pageIndex;
+        final int level;
+        final int minCol;
+        final int minRow;
+        final int maxCol;
+        final int maxRow;
+
+        VisibleTiles(ImagePageList pages, int pageIndex, int level, int minCol, int minRow, int maxCol, int maxRow) {
+            this.pages = pages;
+            this.pageIndex = pageIndex;
+            this.level = level;
+            this.minCol = minCol;
+            this.minRow = minRow;
+            this.maxCol = maxCol;
+            this.maxRow = maxRow;
+        }
+
+        boolean contains(ImagePageList pages, int pageIndex, int level, int col, int row) {
+            return pages == this.pages && pageIndex == this.pageIndex && level == this.level
+                    && col >= minCol && col <= maxCol && row >= minRow && row <= maxRow;
+        }
+    }
 
     /**
      * Creates a new instance of ImageCanvas
      */
     public ImageCanvas() {
+        getChildren().addAll(pageLayer, tileLayer, labelLayer, boxLayer);
         tooltip = new Tooltip();
         this.setOnMousePressed((MouseEvent me) -> {
             if (boxes == null || tableView == null) {
                 return;
             }
             System.out.println("-->" + me.getButton().name());
-            TessBox box = boxes.hitObject(new Point2D(me.getX(), me.getY()));
+            TessBox box = boxes.hitObject(new Point2D(me.getX() / zoom, me.getY() / zoom));
             if (me.getClickCount() == 2&&!me.getButton().name().equals("SECONDARY")) {
                 TextInputDialog dialog = new TextInputDialog(box.getCharacter());
                 dialog.setTitle(null);
@@ -86,7 +219,7 @@ public class ImageCanvas extends Canvas {
 
                 box.setSelected(!box.isSelected()); // toggle selection}
                 if (me.getButton().name().equals("SECONDARY")) {
-                    int begin = boxes.toList().indexOf(boxes.getSelectedBoxes().get(0));
+                    int begin = boxes.indexOf(boxes.getSelectedBoxes().get(0));
                     String match = "";
                     if (boxes.getSelectedBoxes().get(0).getCharacter().matches("[\u4e00-\u9fa5]")) {
                         match = "[\u4e00-\u9fa5]";
@@ -106,7 +239,7 @@ public class ImageCanvas extends Canvas {
                     }
                     switch (match) {
                         case "[0-9]":
-                            for (int i = 0; i < boxes.getSelectedBoxes().size(); i++) {
+                            for (int i = 0; i < boxes.selectedCount(); i++) {
                                 boxes.getSelectedBoxes().get(i).setRect(new Rectangle2D(boxes.getSelectedBoxes().get(i).getX() - 1, boxes.getSelectedBoxes().get(i).getY()-1
                                         , boxes.getSelectedBoxes().get(i).getWidth()+1, boxes.getSelectedBoxes().get(i).getHeight()+2));
                             }
@@ -114,13 +247,13 @@ public class ImageCanvas extends Canvas {
                         case "[\u4e00-\u9fa5]":
                             boxes.getSelectedBoxes().get(0).setRect(new Rectangle2D(boxes.getSelectedBoxes().get(0).getX(), boxes.getSelectedBoxes().get(0).getY()
                                     , boxes.toList().get(0).getWidth(), boxes.toList().get(0).getHeight()));
-                            for (int i = 1; i < boxes.getSelectedBoxes().size(); i++) {
+                            for (int i = 1; i < boxes.selectedCount(); i++) {
                                 boxes.getSelectedBoxes().get(i).setRect(new Rectangle2D(boxes.getSelectedBoxes().get(i - 1).getX() + boxes.toList().get(0).getWidth(), boxes.getSelectedBoxes().get(0).getY()
                                         , boxes.toList().get(0).getWidth(), boxes.toList().get(0).getHeight()));
                             }
                             break;
                         case "[a-zA-Z]":
-                            for (int i = 0; i < boxes.getSelectedBoxes().size(); i++) {
+                            for (int i = 0; i < boxes.selectedCount(); i++) {
                                 boxes.getSelectedBoxes().get(i).setRect(new Rectangle2D(boxes.getSelectedBoxes().get(i).getX()-2, boxes.getSelectedBoxes().get(i).getY()-1
                                         , boxes.getSelectedBoxes().get(i).getWidth()+2, boxes.getSelectedBoxes().get(i).getHeight()+1));
                             }
@@ -128,36 +261,23 @@ public class ImageCanvas extends Canvas {
                     }
 
                 }
-                if (me.isAltDown() && boxes.getSelectedBoxes().size() == 2) {//如果按下shift而且已经有选中的box的时候
-
-                    int begin = boxes.toList().indexOf(boxes.getSelectedBoxes().get(0));
-                    int last = boxes.toList().indexOf(boxes.getSelectedBoxes().get(1));
-                    if (begin < last) {
-                        for (int i = begin; i < last; i++) {
-                            if (boxes.toList().get(i).getHeight() >= boxes.getSelectedBoxes().get(0).getHeight() - 4) {
-                                boxes.toList().get(i).setSelected(true);
-                            }
-                        }
-                    } else {
-                        for (int i = last; i < begin; i++) {
-                            if (boxes.toList().get(i).getHeight() >= boxes.getSelectedBoxes().get(0).getHeight() - 4) {
-                                boxes.toList().get(i).setSelected(true);
-                            }
-                        }
-                    }
+                if (me.isAltDown() && boxes.selectedCount() == 2) {//如果按下shift而且已经有选中的box的时候
+
+                    int begin = boxes.indexOf(boxes.getSelectedBoxes().get(0));
+                    int last = boxes.indexOf(boxes.getSelectedBoxes().get(1));
+                    int minHeight = boxes.getSelectedBoxes().get(0).getHeight() - 4;
+                    boxes.selectRange(Math.min(begin, last), Math.max(begin, last), b -> b.getHeight() >= minHeight);
 
                 }
                 //paint();
                 // select corresponding table rows
                 boxClickAction = true;
-                java.util.List<TessBox> boxesOfCurPage = boxes.toList(); // boxes of current page
-
                 if (!box.isSelected()) {
-                    int index = boxesOfCurPage.indexOf(box);
+                    int index = boxes.indexOf(box);
                     tableView.getSelectionModel().clearSelection(index);
                 }
                 for (TessBox selectedBox : boxes.getSelectedBoxes()) {
-                    int index = boxesOfCurPage.indexOf(selectedBox);
+                    int index = boxes.indexOf(selectedBox);
                     tableView.getSelectionModel().select(index);
                     tableView.scrollTo(index > 10 ? index - 4 : index); // fix issue with selected row pegged at the top
                 }
@@ -170,17 +290,17 @@ public class ImageCanvas extends Canvas {
             @Override
             public void handle(MouseEvent me) {
                 if (!me.isAltDown() && !me.getButton().name().equals("SECONDARY")) {
-                    Rectangle2D rectangle2D = new Rectangle2D(me.getX() - boxes.getSelectedBoxes().get(0).getWidth() / 2,
+                    Rectangle2D rectangle2D = new Rectangle2D(me.getX() / zoom - boxes.getSelectedBoxes().get(0).getWidth() / 2,
                             boxes.getSelectedBoxes().get(0).getY(), boxes.getSelectedBoxes().get(0).getWidth(), boxes.getSelectedBoxes().get(0).getHeight());
                     boxes.getSelectedBoxes().get(0).setRect(rectangle2D);
-                    paint(true);
+                    requestPaint(true);
                 }
 
             }
         });
         this.setOnMouseMoved((MouseEvent me) -> {
             if (this.boxes != null) {
-                TessBox curBox = this.boxes.hitObject(me.getX(), me.getY());
+                TessBox curBox = this.boxes.hitObject(me.getX() / zoom, me.getY() / zoom);
 
                 if (curBox != null) {
                     if (prevBox != curBox) {
@@ -207,6 +327,17 @@ public class ImageCanvas extends Canvas {
             }
         });
 
+        this.setOnScroll((ScrollEvent se) -> {
+            if (se.isControlDown() && se.getDeltaY() != 0) {
+                if (se.getDeltaY() > 0) {
+                    zoomIn();
+                } else {
+                    zoomOut();
+                }
+                se.consume();
+            }
+        });
+
         this.setOnMouseExited((MouseEvent me) -> {
             if (this.boxes != null) {
                 tooltip.hide();
@@ -215,54 +346,471 @@ public class ImageCanvas extends Canvas {
     }
 
 
+    /**
+     * Brings the overlays up to date. Only what is inside the scroll viewport
+     * is drawn: the regions of boxes changed since the last paint, or the
+     * whole viewport after scrolling or after the image or the boxes changed.
+     * The page image itself is never redrawn.
+     *
+     * @param canSee whether to show the character labels
+     */
     public void paint(boolean canSee) {
-        final GraphicsContext gc = getGraphicsContext2D();
+        if (!hasPage()) {
+            return;
+        }
+
+        Rectangle2D viewport = getViewport();
+        boolean moved = !viewport.equals(overlayArea);
+        if (moved) {
+            placeOverlays(viewport);
+        }
+        boolean full = fullRepaint || moved;
+
+        if (tiledPages != null && (full || tilesChanged)) {
+            updateTiles(viewport);
+            tilesChanged = false;
+        }
+
+        if (full) {
+            paintBoxLayer(viewport);
+        } else {
+            for (Rectangle2D region : dirtyRegions) {
+                paintBoxLayer(region);
+            }
+        }
+
+        labelLayer.setVisible(canSee);
+        if (canSee) {
+            if (full || !labelsPainted) {
+                paintLabelLayer(viewport);
+            } else {
+                for (Rectangle2D region : dirtyRegions) {
+                    paintLabelLayer(region);
+                }
+            }
+        }
+        labelsPainted = canSee; // hidden labels are not kept up to date
+
+        dirtyRegions.clear();
+        fullRepaint = false;
+        lastCanSee = canSee;
+    }
 
-        if (image == null) {
+    /**
+     * Schedules a paint on the next pulse. Requests made until then, such as
+     * by the events of a fast drag, are served by that one paint.
+     *
+     * @param canSee whether to show the character labels
+     */
+    public void requestPaint(boolean canSee) {
+        requestedCanSee = canSee;
+        if (!paintRequested) {
+            paintRequested = true;
+            renderTimer.start();
+        }
+    }
+
+    /**
+     * Gets the part of the page visible in the scroll pane, in page
+     * coordinates.
+     */
+    private Rectangle2D getViewport() {
+        double width = Math.ceil(pageWidth * zoom);
+        double height = Math.ceil(pageHeight * zoom);
+        double hoffset = 0;
+        double voffset = 0;
+        double viewportWidth = width;
+        double viewportHeight = height;
+        if (parent != null && parent.getContent() == this) {
+            Bounds viewportBounds = parent.getViewportBounds();
+            viewportWidth = Math.min(width, viewportBounds.getWidth());
+            viewportHeight = Math.min(height, viewportBounds.getHeight());
+            hoffset = offset(width - viewportWidth, parent.getHvalue(), parent.getHmin(), parent.getHmax());
+            voffset = offset(height - viewportHeight, parent.getVvalue(), parent.getVmin(), parent.getVmax());
+        }
+        return new Rectangle2D(Math.floor(hoffset) / zoom, Math.floor(voffset) / zoom,
+                Math.ceil(viewportWidth) / zoom, Math.ceil(viewportHeight) / zoom);
+    }
+
+    private static double offset(double scrollRange, double value, double min, double max) {
+        return max > min ? Math.max(0, scrollRange) * (value - min) / (max - min) : 0;
+    }
+
+    /**
+     * Sizes the overlay layers to the viewport and moves them over it.
+     */
+    private void placeOverlays(Rectangle2D viewport) {
+        for (Canvas layer : new Canvas[]{boxLayer, labelLayer}) {
+            layer.setWidth(Math.round(viewport.getWidth() * zoom));
+            layer.setHeight(Math.round(viewport.getHeight() * zoom));
+            layer.relocate(Math.round(viewport.getMinX() * zoom), Math.round(viewport.getMinY() * zoom));
+        }
+        overlayArea = viewport;
+    }
+
+    /**
+     * Shows the tiles in the viewport that are loaded and requests the rest.
+     */
+    private void updateTiles(Rectangle2D viewport) {
+        int level = level(ImagePyramid.LEVELS);
+        int span = ImagePageList.TILE_SIZE << level; // page pixels per tile
+        VisibleTiles visible = new VisibleTiles(tiledPages, tiledPageIndex, level,
+                (int) (viewport.getMinX() / span), (int) (viewport.getMinY() / span),
+                (int) Math.ceil(viewport.getMaxX() / span) - 1, (int) Math.ceil(viewport.getMaxY() / span) - 1);
+        visibleTiles = visible;
+
+        Map<Long, ImageView> views = new HashMap<Long, ImageView>();
+        for (int row = visible.minRow; row <= visible.maxRow; row++) {
+            for (int col = visible.minCol; col <= visible.maxCol; col++) {
+                long key = tileKey(level, col, row);
+                ImageView view = tileViews.get(key);
+                if (view == null) {
+                    Image tile = tiledPages.getCachedFXTile(tiledPageIndex, level, col, row);
+                    if (tile == null) {
+                        loadTile(key, level, col, row);
+                        continue;
+                    }
+                    view = new ImageView(tile);
+                }
+                // rounded edges, so that neighbouring tiles meet without seams
+                double left = Math.round(col * span * zoom);
+                double top = Math.round(row * span * zoom);
+                view.setFitWidth(Math.round(Math.min((col + 1) * span, pageWidth) * zoom) - left);
+                view.setFitHeight(Math.round(Math.min((row + 1) * span, pageHeight) * zoom) - top);
+                view.setSmooth(zoom * (1 << level) < 1);
+                view.relocate(left, top);
+                views.put(key, view);
+            }
+        }
+        tileLayer.getChildren().setAll(views.values());
+        tileViews = views;
+    }
+
+    /**
+     * Decodes a tile in the background, then shows it if it is still in the
+     * viewport.
+     */
+    private void loadTile(long key, int level, int col, int row) {
+        if (!pendingTiles.add(key)) {
             return;
         }
+        final ImagePageList pages = tiledPages;
+        final int pageIndex = tiledPageIndex;
+        tileLoader.execute(() -> {
+            boolean loaded = false;
+            try {
+                // skip tiles scrolled out of view while waiting
+                VisibleTiles visible = visibleTiles;
+                if (visible != null && visible.contains(pages, pageIndex, level, col, row)) {
+                    pages.getFXTile(pageIndex, level, col, row);
+                    loaded = true;
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+            final boolean show = loaded;
+            Platform.runLater(() -> {
+                if (pages != tiledPages || pageIndex != tiledPageIndex) {
+                    return;
+                }
+                pendingTiles.remove(key);
+                if (show) {
+                    tilesChanged = true;
+                    requestPaint(lastCanSee);
+                }
+            });
+        });
+    }
+
+    private static long tileKey(int level, int col, int row) {
+        return ((long) level << 56) | ((long) col << 28) | row;
+    }
 
-        gc.clearRect(0, 0, getWidth(), getHeight());
-        gc.drawImage(image, 0, 0);
-        gc.setStroke(Color.BLUE);
-        if (boxes == null) {
+    /**
+     * Redraws the box outlines within a region.
+     */
+    private void paintBoxLayer(Rectangle2D region) {
+        GraphicsContext gc = beginLayerPaint(boxLayer, region);
+        if (gc == null) {
             return;
         }
-        /*if (boxes.getSelectedBoxes().size() > 0) {
-            gc.setFont(new Font(16));
-            gc.setFill(Color.BLACK);
-            gc.fillText(boxes.getSelectedBoxes().get(0).getCharacter(), boxes.getSelectedBoxes().get(0).getX(), boxes.getSelectedBoxes().get(0).getY());
-        }*/
-        boolean resetColor = false;
-        for (TessBox box : boxes.toList()) {
-            if (canSee) {
-                gc.setFont(new Font(20));
-                gc.setFill(Color.BLACK);
-                gc.fillText(box.getCharacter(), box.getX(), box.getY());
+        if (boxes != null) {
+            double margin = MARGIN / zoom;
+            Rectangle2D area = new Rectangle2D(region.getMinX() - margin, region.getMinY() - margin,
+                    region.getWidth() + 2 * margin, region.getHeight() + 2 * margin);
+            // lines keep their width on screen at any zoom
+            gc.setStroke(Color.BLUE);
+            gc.setLineWidth(1 / zoom);
+            boolean resetColor = false;
+            for (TessBox box : boxes.intersecting(area)) {
+                if (box.isSelected()) {
+                    gc.setLineWidth(2 / zoom);
+                    gc.setStroke(Color.RED);
+                    resetColor = true;
+                }
+                gc.strokeRect(box.getX(), box.getY(), box.getWidth(), box.getHeight());
+                if (resetColor) {
+                    gc.setLineWidth(1 / zoom);
+                    gc.setStroke(Color.BLUE);
+                    resetColor = false;
+                }
             }
-            if (box.isSelected()) {
-                gc.setLineWidth(2);
-                gc.setStroke(Color.RED);
-                resetColor = true;
+        }
+        gc.restore();
+    }
+
+    /**
+     * Redraws the character labels within a region from cached bitmaps.
+     */
+    private void paintLabelLayer(Rectangle2D region) {
+        GraphicsContext gc = beginLayerPaint(labelLayer, region);
+        if (gc == null) {
+            return;
+        }
+        if (boxes != null) {
+            // labels are drawn above and to the right of their boxes
+            Rectangle2D area = new Rectangle2D(region.getMinX() - LABEL_REACH, region.getMinY(),
+                    region.getWidth() + LABEL_REACH, region.getHeight() + LABEL_FONT_SIZE);
+            for (TessBox box : boxes.intersecting(area)) {
+                LabelImage label = getLabelImage(box.getCharacter());
+                if (label != null) {
+                    gc.drawImage(label.image, box.getX(), box.getY() - label.baseline);
+                }
             }
-            Rectangle2D rect = box.getRect();
-            gc.strokeRect(rect.getMinX(), rect.getMinY(), rect.getWidth(), rect.getHeight());
-            if (resetColor) {
-                gc.setLineWidth(1);
-                gc.setStroke(Color.BLUE);
-                resetColor = false;
+        }
+        gc.restore();
+    }
+
+    /**
+     * Clears a region of a layer and clips drawing to it, in page
+     * coordinates. Must be followed by <code>gc.restore()</code>.
+     *
+     * @return the graphics context, or null if the region is not visible
+     */
+    private GraphicsContext beginLayerPaint(Canvas layer, Rectangle2D region) {
+        Rectangle2D visible = intersection(region, overlayArea);
+        if (visible == null) {
+            return null;
+        }
+        double minX = Math.floor(visible.getMinX());
+        double minY = Math.floor(visible.getMinY());
+        double w = Math.ceil(visible.getMaxX()) - minX;
+        double h = Math.ceil(visible.getMaxY()) - minY;
+
+        GraphicsContext gc = layer.getGraphicsContext2D();
+        gc.save();
+        gc.scale(zoom, zoom);
+        gc.translate(-overlayArea.getMinX(), -overlayArea.getMinY());
+        gc.beginPath();
+        gc.rect(minX, minY, w, h);
+        gc.clip();
+        gc.clearRect(minX, minY, w, h);
+        return gc;
+    }
+
+    /**
+     * Gets the bitmap of a label, rendering it on first use.
+     */
+    private LabelImage getLabelImage(String chrs) {
+        if (chrs == null || chrs.isEmpty()) {
+            return null;
+        }
+        LabelImage label = labelImages.get(chrs);
+        if (label == null) {
+            Text text = new Text(chrs);
+            text.setFont(LABEL_FONT);
+            text.setFill(Color.BLACK);
+            SnapshotParameters params = new SnapshotParameters();
+            params.setFill(Color.TRANSPARENT);
+            label = new LabelImage(text.snapshot(params, null), -text.getLayoutBounds().getMinY());
+            labelImages.put(chrs, label);
+        }
+        return label;
+    }
+
+    /**
+     * Marks the area a box and its label cover as needing a repaint.
+     */
+    private void addDirtyRegion(String chrs, int x, int y, int width, int height) {
+        if (fullRepaint) {
+            return;
+        }
+        double margin = MARGIN / zoom;
+        Rectangle2D region = new Rectangle2D(x - margin, y - LABEL_FONT_SIZE - margin,
+                Math.max(width, chrs == null ? 0 : chrs.length() * LABEL_FONT_SIZE) + 2 * margin, height + LABEL_FONT_SIZE + 2 * margin);
+        if (dirtyRegions.size() == MAX_DIRTY_REGIONS) {
+            // too many to redraw one by one; redraw their union instead
+            for (Rectangle2D r : dirtyRegions) {
+                region = union(region, r);
             }
+            dirtyRegions.clear();
         }
+        dirtyRegions.add(region);
+    }
+
+    private static Rectangle2D intersection(Rectangle2D a, Rectangle2D b) {
+        double minX = Math.max(a.getMinX(), b.getMinX());
+        double minY = Math.max(a.getMinY(), b.getMinY());
+        double maxX = Math.min(a.getMaxX(), b.getMaxX());
+        double maxY = Math.min(a.getMaxY(), b.getMaxY());
+        return minX < maxX && minY < maxY ? new Rectangle2D(minX, minY, maxX - minX, maxY - minY) : null;
+    }
+
+    private static Rectangle2D union(Rectangle2D a, Rectangle2D b) {
+        double minX = Math.min(a.getMinX(), b.getMinX());
+        double minY = Math.min(a.getMinY(), b.getMinY());
+        double maxX = Math.max(a.getMaxX(), b.getMaxX());
+        double maxY = Math.max(a.getMaxY(), b.getMaxY());
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
     }
 
     public void setImage(Image image) {
         this.image = image;
-        this.setWidth(image.getWidth());
-        this.setHeight(image.getHeight());
+        this.levels = null;
+        this.pageWidth = image.getWidth();
+        this.pageHeight = image.getHeight();
+        clearTiles();
+        layoutPage();
+    }
+
+    /**
+     * Shows a page in tiles, for pages too large for one image.
+     *
+     * @param pages the pages of the image
+     * @param pageIndex page index
+     */
+    public void setTiledImage(ImagePageList pages, int pageIndex) {
+        this.image = null;
+        this.levels = null;
+        this.pageWidth = pages.getWidth(pageIndex);
+        this.pageHeight = pages.getHeight(pageIndex);
+        clearTiles();
+        this.tiledPages = pages;
+        this.tiledPageIndex = pageIndex;
+        layoutPage();
+    }
+
+    private void clearTiles() {
+        tiledPages = null;
+        visibleTiles = null;
+        tileViews.clear();
+        tileLayer.getChildren().clear();
+        pendingTiles.clear();
+    }
+
+    private boolean hasPage() {
+        return image != null || tiledPages != null;
+    }
+
+    /**
+     * Sets downsampled levels of the current image, used when zoomed out.
+     * Ignored if the image has changed since they were requested.
+     *
+     * @param image the image the levels were built from
+     * @param levels the full size image followed by levels of half the size
+     * of the one before
+     */
+    public void setPageLevels(Image image, Image[] levels) {
+        if (image != this.image) {
+            return;
+        }
+        this.levels = levels;
+        pageLayer.setImage(pageLevel());
+    }
+
+    /**
+     * Gets the display scale of the page.
+     *
+     * @return the zoom, 1 for actual size
+     */
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Sets the display scale of the page, within 1/8 and 8.
+     *
+     * @param zoom the zoom, 1 for actual size
+     */
+    public void setZoom(double zoom) {
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+        if (zoom == this.zoom) {
+            return;
+        }
+        this.zoom = zoom;
+        if (hasPage()) {
+            layoutPage();
+            requestPaint(lastCanSee);
+        }
+    }
+
+    public void zoomIn() {
+        setZoom(zoom * ZOOM_STEP);
+    }
+
+    public void zoomOut() {
+        setZoom(zoom / ZOOM_STEP);
+    }
+
+    /**
+     * Converts a rectangle in page coordinates to coordinates of this node.
+     *
+     * @param rect rectangle in page coordinates
+     * @return the rectangle as displayed
+     */
+    public Rectangle2D pageToView(Rectangle2D rect) {
+        return new Rectangle2D(rect.getMinX() * zoom, rect.getMinY() * zoom, rect.getWidth() * zoom, rect.getHeight() * zoom);
+    }
+
+    /**
+     * Sizes the node and the page layer for the image and zoom.
+     */
+    private void layoutPage() {
+        fullRepaint = true;
+        double width = Math.ceil(pageWidth * zoom);
+        double height = Math.ceil(pageHeight * zoom);
+        pageLayer.setImage(pageLevel());
+        pageLayer.setFitWidth(width);
+        pageLayer.setFitHeight(height);
+        pageLayer.setSmooth(zoom < 1); // show pixels when zoomed in
+        setMinSize(width, height);
+        setPrefSize(width, height);
+        setMaxSize(width, height);
+    }
+
+    /**
+     * Gets the smallest available level that is not smaller than displayed.
+     */
+    private Image pageLevel() {
+        if (levels == null) {
+            return image;
+        }
+        return levels[level(levels.length - 1)];
+    }
+
+    /**
+     * Gets the level, of halved size each, that is displayed at the current
+     * zoom without being enlarged.
+     */
+    private int level(int maxLevel) {
+        if (zoom >= 1) {
+            return 0;
+        }
+        return Math.min(maxLevel, (int) Math.floor(Math.log(1 / zoom) / Math.log(2) + 1e-9));
     }
 
     public void setBoxes(TessBoxCollection boxes) {
+        if (this.boxes == boxes) {
+            return;
+        }
+        if (this.boxes != null) {
+            this.boxes.removeBoxChangeListener(boxChangeListener);
+        }
         this.boxes = boxes;
+        if (boxes != null) {
+            boxes.addBoxChangeListener(boxChangeListener);
+        }
+        this.fullRepaint = true;
         //paint();
     }
 
@@ -274,6 +822,18 @@ public class ImageCanvas extends Canvas {
      * @param table the table to set
      */
     public void setTable(TableView table, ScrollPane parent) {
+        if (this.parent != parent) {
+            if (this.parent != null) {
+                this.parent.hvalueProperty().removeListener(viewportListener);
+                this.parent.vvalueProperty().removeListener(viewportListener);
+                this.parent.viewportBoundsProperty().removeListener(viewportListener);
+            }
+            if (parent != null) {
+                parent.hvalueProperty().addListener(viewportListener);
+                parent.vvalueProperty().addListener(viewportListener);
+                parent.viewportBoundsProperty().addListener(viewportListener);
+            }
+        }
         this.parent = parent;
         this.tableView = table;
     }
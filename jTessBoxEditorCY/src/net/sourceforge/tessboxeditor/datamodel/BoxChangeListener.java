@@ -0,0 +1,37 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.datamodel;
+
+/**
+ * Listener notified when a box of a collection changes in a way that affects
+ * how it is drawn: it is added, removed, moved, selected or deselected, or
+ * given a new character value.
+ */
+@FunctionalInterface
+public interface BoxChangeListener {
+
+    /**
+     * Called after a box changed.
+     *
+     * @param box the box
+     * @param character character value the box had before the change
+     * @param x left of the rectangle the box had before the change
+     * @param y top of the rectangle the box had before the change
+     * @param width width of the rectangle the box had before the change
+     * @param height height of the rectangle the box had before the change
+     */
+    void boxChanged(TessBox box, String character, int x, int y, int width, int height);
+}
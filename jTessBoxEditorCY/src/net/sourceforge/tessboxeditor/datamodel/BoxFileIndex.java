@@ -0,0 +1,270 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.datamodel;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import net.sourceforge.tessboxeditor.utilities.MappedTextFile;
+
+/**
+ * Byte range of each page in a box file. The file is scanned once at byte
+ * level without decoding characters or creating boxes; only the page field of
+ * each line is parsed. Lines are grouped into pages by the same rules as
+ * {@link BoxFileReader}, so a page can later be parsed from its range alone.
+ */
+class BoxFileIndex {
+
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_FIELDS = 6;
+    private static final int MAX_PAGE_FIELD_LENGTH = 32;
+
+    private final int pageCount;
+    private final long[] starts; // start of each page, and of the lines after the last page
+    private final int[] linesBefore;
+    private boolean tess2_0Format;
+
+    // page state
+    private int curPage;
+
+    // line state
+    private long lineStart;
+    private int lineLength;
+    private int lineNumber;
+    private int fieldCount;
+    private boolean inField;
+    private final byte[] pageField = new byte[MAX_PAGE_FIELD_LENGTH];
+    private int pageFieldLength;
+    private boolean pendingCR;
+    private int pendingBytes; // lead bytes of a possible multi-byte line terminator
+    private final byte[] pending = new byte[2];
+
+    // first line state, for Tess 2.0x format detection
+    private boolean firstLine = true;
+    private int wordCount;
+    private boolean inWord;
+    private boolean startsWithSpace;
+
+    /**
+     * Scans a box file.
+     *
+     * @param channel box file
+     * @param pageCount number of pages in the image
+     * @throws IOException
+     */
+    BoxFileIndex(FileChannel channel, int pageCount) throws IOException {
+        this.pageCount = pageCount;
+        long size = channel.size();
+        starts = new long[pageCount + 1];
+        Arrays.fill(starts, size);
+        linesBefore = new int[pageCount + 1];
+        if (pageCount > 0) {
+            starts[0] = 0;
+        }
+
+        long pos = 0;
+        while (pos < size) {
+            long len = Math.min(MAP_WINDOW_SIZE, size - pos);
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            try {
+                if (pos == 0) {
+                    BoxFileReader.skipBOM(bytes);
+                    lineStart = bytes.position();
+                }
+                for (int i = bytes.position(); i < len; i++) {
+                    scan(bytes.get(i), pos + i);
+                }
+            } finally {
+                MappedTextFile.unmap(bytes);
+            }
+            pos += len;
+        }
+        if (pendingBytes > 0) {
+            flushPending();
+        }
+        if (lineLength > 0) {
+            endLine(size);
+        }
+    }
+
+    /**
+     * Gets the offset of the first line of a page.
+     *
+     * @param page page index
+     * @return byte offset
+     */
+    long getStart(int page) {
+        return starts[page];
+    }
+
+    /**
+     * Gets the offset after the last line of a page.
+     *
+     * @param page page index
+     * @return byte offset
+     */
+    long getEnd(int page) {
+        return starts[page + 1];
+    }
+
+    /**
+     * Gets the number of lines before a page.
+     *
+     * @param page page index
+     * @return line count
+     */
+    int getLinesBefore(int page) {
+        return linesBefore[page];
+    }
+
+    /**
+     * Whether the file is in Tess 2.0x format, that is, the first line has
+     * only five fields.
+     *
+     * @return true if Tess 2.0x format
+     */
+    boolean isTess2_0Format() {
+        return tess2_0Format;
+    }
+
+    private void scan(byte b, long offset) {
+        if (pendingCR) {
+            pendingCR = false;
+            if (b == '\n') {
+                lineStart = offset + 1;
+                return;
+            }
+        }
+
+        // U+0085 is C2 85; U+2028 and U+2029 are E2 80 A8 and E2 80 A9
+        if (pendingBytes > 0) {
+            boolean c2 = pending[0] == (byte) 0xC2;
+            if (pendingBytes == 1 && c2 && b == (byte) 0x85
+                    || pendingBytes == 2 && (b == (byte) 0xA8 || b == (byte) 0xA9)) {
+                pendingBytes = 0;
+                endLine(offset + 1);
+                return;
+            }
+            if (pendingBytes == 1 && !c2 && b == (byte) 0x80) {
+                pending[pendingBytes++] = b;
+                return;
+            }
+            flushPending();
+        }
+        if (b == (byte) 0xC2 || b == (byte) 0xE2) {
+            pending[pendingBytes++] = b;
+            return;
+        }
+
+        if (b == '\n' || b == '\r' || b == 0x0B || b == 0x0C) {
+            endLine(offset + 1);
+            pendingCR = b == '\r';
+            return;
+        }
+        addByte(b);
+    }
+
+    /**
+     * Adds bytes held back as a possible line terminator to the line.
+     */
+    private void flushPending() {
+        for (int i = 0; i < pendingBytes; i++) {
+            addByte(pending[i]);
+        }
+        pendingBytes = 0;
+    }
+
+    private void addByte(byte b) {
+        if (firstLine) {
+            boolean space = b == ' ' || b == '\t';
+            if (lineLength == 0) {
+                startsWithSpace = space;
+            }
+            if (space) {
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                wordCount++;
+            }
+        }
+
+        if (lineLength == 0) {
+            // first character always belongs to the character field
+            fieldCount = 1;
+            inField = true;
+        } else if (b == ' ') {
+            inField = false;
+        } else {
+            if (!inField) {
+                inField = true;
+                fieldCount++;
+                pageFieldLength = 0;
+            }
+            if (fieldCount == MAX_FIELDS) {
+                if (pageFieldLength < MAX_PAGE_FIELD_LENGTH) {
+                    pageField[pageFieldLength] = b;
+                }
+                pageFieldLength++;
+            }
+        }
+        lineLength++;
+    }
+
+    /**
+     * Ends a line; the next line starts at the given offset.
+     */
+    private void endLine(long next) {
+        lineNumber++;
+        if (firstLine) {
+            firstLine = false;
+            int words = wordCount + (startsWithSpace && wordCount > 0 ? 1 : 0);
+            tess2_0Format = words == 5;
+        }
+
+        if (fieldCount == MAX_FIELDS) {
+            int page = pageNumber();
+            // boxes of a later page close the current page
+            while (page > curPage && curPage < pageCount) {
+                curPage++;
+                starts[curPage] = lineStart;
+                linesBefore[curPage] = lineNumber - 1;
+            }
+        }
+
+        lineStart = next;
+        lineLength = 0;
+        fieldCount = 0;
+        inField = false;
+    }
+
+    /**
+     * Parses the page field. An invalid value is left for the reader to
+     * report when the page is parsed.
+     */
+    private int pageNumber() {
+        if (pageFieldLength > MAX_PAGE_FIELD_LENGTH) {
+            return -1;
+        }
+        try {
+            int page = Integer.parseInt(new String(pageField, 0, pageFieldLength, StandardCharsets.UTF_8));
+            return page >= Short.MIN_VALUE && page <= Short.MAX_VALUE ? page : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
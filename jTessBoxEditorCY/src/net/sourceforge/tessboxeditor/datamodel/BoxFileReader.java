@@ -0,0 +1,407 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.datamodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import net.sourceforge.tessboxeditor.utilities.MappedTextFile;
+
+/**
+ * Single-pass box file parser. Characters are consumed one at a time, so no
+ * token arrays or regular expressions are created, and the character field is
+ * the only string taken from a line; boxes of the same character value share
+ * one string, and are added straight into the page collections.
+ * <p>
+ * A line is split on runs of spaces, except that the first character always
+ * belongs to the box character field. Lines with five fields are in Tess 2.0x
+ * format (page 0); lines with six fields carry the page number. Any other line
+ * is skipped.
+ */
+public class BoxFileReader {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_FIELDS = 6;
+
+    private final int pageCount;
+    private final IntUnaryOperator pageHeight;
+    private final List<TessBoxCollection> pages;
+    private final Map<String, String> characters = new HashMap<String, String>(); // one string per value
+
+    private boolean tess2_0Format;
+
+    // page state
+    private int curPage;
+    private int curPageHeight;
+
+    // line state
+    private final StringBuilder line = new StringBuilder(64);
+    private final long[] values = new long[MAX_FIELDS];
+    private final boolean[] invalid = new boolean[MAX_FIELDS];
+    private final int[] digits = new int[MAX_FIELDS];
+    private final int[] lengths = new int[MAX_FIELDS];
+    private final boolean[] negative = new boolean[MAX_FIELDS];
+    private int fieldCount;
+    private int chrsEnd;
+    private boolean inField;
+    private boolean pendingCR;
+    private int lineNumber;
+
+    // first line state, for Tess 2.0x format detection
+    private boolean firstLine = true;
+    private int wordCount;
+    private boolean inWord;
+    private boolean startsWithSpace;
+
+    /**
+     * Creates a reader for an image with the given number of pages.
+     *
+     * @param pageCount number of pages in the image
+     * @param pageHeight page height by page index, used to flip y-coordinates
+     */
+    public BoxFileReader(int pageCount, IntUnaryOperator pageHeight) {
+        this.pageCount = pageCount;
+        this.pageHeight = pageHeight;
+        this.pages = new ArrayList<TessBoxCollection>(Collections.nCopies(pageCount, (TessBoxCollection) null));
+        if (pageCount > 0) {
+            curPageHeight = pageHeight.applyAsInt(0);
+        }
+    }
+
+    /**
+     * Reads all boxes from a reader. The reader is not closed.
+     *
+     * @param in box data
+     * @return boxes of each page
+     * @throws IOException
+     * @throws NumberFormatException if a box coordinate is not a number
+     */
+    public List<TessBoxCollection> read(Reader in) throws IOException {
+        char[] buf = new char[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            feed(buf, 0, n);
+        }
+        finish();
+        return allPages();
+    }
+
+    /**
+     * Reads all boxes from a UTF-8 box file. The file is memory mapped a window
+     * at a time and decoded straight from the mapped buffer, so its content is
+     * never held in memory as a whole.
+     *
+     * @param file box file
+     * @return boxes of each page
+     * @throws IOException
+     * @throws NumberFormatException if a box coordinate is not a number
+     */
+    public List<TessBoxCollection> read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            decode(channel, 0, channel.size());
+        }
+        finish();
+        return allPages();
+    }
+
+    /**
+     * Reads the boxes of a page from the byte range located by a
+     * {@link BoxFileIndex}.
+     *
+     * @param channel box file
+     * @param page page index
+     * @param start offset of the first line of the page
+     * @param end offset after the last line of the page
+     * @param linesBefore number of lines before the page, for error messages
+     * @return boxes of the page
+     * @throws IOException
+     * @throws NumberFormatException if a box coordinate is not a number
+     */
+    TessBoxCollection readPage(FileChannel channel, int page, long start, long end, int linesBefore) throws IOException {
+        curPage = page;
+        curPageHeight = pageHeight.applyAsInt(page);
+        firstLine = false;
+        lineNumber = linesBefore;
+        decode(channel, start, end);
+        finish();
+        return page(page);
+    }
+
+    /**
+     * Decodes a byte range of a file as UTF-8, memory mapping it a window at
+     * a time.
+     */
+    private void decode(FileChannel channel, long start, long end) throws IOException {
+        if (start >= end) {
+            return;
+        }
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+        long pos = start;
+        while (pos < end) {
+            long len = Math.min(MAP_WINDOW_SIZE, end - pos);
+            boolean last = pos + len == end;
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            try {
+                if (pos == 0) {
+                    skipBOM(bytes);
+                }
+                // a character split by the window end stays undecoded and is mapped again
+                while (true) {
+                    boolean overflow = decoder.decode(bytes, chars, last).isOverflow();
+                    drain(chars);
+                    if (!overflow) {
+                        break;
+                    }
+                }
+                pos += bytes.position();
+            } finally {
+                MappedTextFile.unmap(bytes);
+            }
+        }
+        while (decoder.flush(chars).isOverflow()) {
+            drain(chars);
+        }
+        drain(chars);
+    }
+
+    /**
+     * Skips a UTF-8 byte order mark.
+     */
+    static void skipBOM(ByteBuffer bytes) {
+        if (bytes.remaining() >= 3 && (bytes.get(0) & 0xFF) == 0xEF
+                && (bytes.get(1) & 0xFF) == 0xBB && (bytes.get(2) & 0xFF) == 0xBF) {
+            bytes.position(3);
+        }
+    }
+
+    private void drain(CharBuffer chars) {
+        chars.flip();
+        feed(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+        chars.clear();
+    }
+
+    /**
+     * Parses a chunk of box data.
+     *
+     * @param buf characters
+     * @param off offset of first character
+     * @param len number of characters
+     */
+    void feed(char[] buf, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = buf[i];
+
+            if (pendingCR) {
+                pendingCR = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+
+            if (isLineTerminator(c)) {
+                endLine();
+                pendingCR = c == '\r';
+                continue;
+            }
+
+            if (firstLine) {
+                countWord(c);
+            }
+
+            if (line.length() == 0) {
+                // first character always belongs to the character field
+                fieldCount = 1;
+                inField = true;
+            } else if (c == ' ') {
+                inField = false;
+            } else {
+                if (!inField) {
+                    inField = true;
+                    if (fieldCount < MAX_FIELDS) {
+                        values[fieldCount] = 0;
+                        invalid[fieldCount] = false;
+                        digits[fieldCount] = 0;
+                        lengths[fieldCount] = 0;
+                        negative[fieldCount] = false;
+                    }
+                    fieldCount++;
+                }
+                if (fieldCount > 1 && fieldCount <= MAX_FIELDS) {
+                    addDigit(fieldCount - 1, c);
+                }
+            }
+            if (fieldCount == 1 && inField) {
+                chrsEnd = line.length() + 1;
+            }
+            line.append(c);
+        }
+    }
+
+    /**
+     * Completes parsing; the last line need not be terminated.
+     */
+    void finish() {
+        if (line.length() > 0) {
+            endLine();
+        }
+    }
+
+    /**
+     * Whether the data are in Tess 2.0x format, that is, the first line has
+     * only five fields.
+     *
+     * @return true if Tess 2.0x format
+     */
+    public boolean isTess2_0Format() {
+        return tess2_0Format;
+    }
+
+    private TessBoxCollection page(int index) {
+        TessBoxCollection boxes = pages.get(index);
+        if (boxes == null) {
+            boxes = new TessBoxCollection();
+            pages.set(index, boxes);
+        }
+        return boxes;
+    }
+
+    private List<TessBoxCollection> allPages() {
+        for (int i = 0; i < pageCount; i++) {
+            page(i);
+        }
+        return pages;
+    }
+
+    /**
+     * Same line terminators as the <code>\R</code> regex construct.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u000B' || c == '\u000C'
+                || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Counts whitespace-delimited words of the first line the same way as
+     * <code>split("\\s+")</code>.
+     */
+    private void countWord(char c) {
+        boolean space = c == ' ' || c == '\t';
+        if (line.length() == 0) {
+            startsWithSpace = space;
+        }
+        if (space) {
+            inWord = false;
+        } else if (!inWord) {
+            inWord = true;
+            wordCount++;
+        }
+    }
+
+    /**
+     * Accumulates a numeric field, accepting what <code>Integer.parseInt</code>
+     * accepts.
+     */
+    private void addDigit(int field, char c) {
+        if (invalid[field]) {
+            return;
+        }
+        if (lengths[field]++ == 0 && (c == '-' || c == '+')) {
+            negative[field] = c == '-';
+            return;
+        }
+        int d = Character.digit(c, 10);
+        if (d < 0) {
+            invalid[field] = true;
+            return;
+        }
+        digits[field]++;
+        values[field] = values[field] * 10 + d;
+        if (values[field] > Integer.MAX_VALUE + 1L) {
+            invalid[field] = true;
+        }
+    }
+
+    /**
+     * Gets the value of a numeric field, checked as
+     * <code>Integer.parseInt</code> would.
+     */
+    private int intValue(int field, int min, int max) {
+        long value = negative[field] ? -values[field] : values[field];
+        if (invalid[field] || digits[field] <= 0 || value < min || value > max) {
+            throw new NumberFormatException("Invalid box data at line " + lineNumber + ": \"" + line + "\"");
+        }
+        return (int) value;
+    }
+
+    private void endLine() {
+        lineNumber++;
+        if (firstLine) {
+            firstLine = false;
+            int words = wordCount + (startsWithSpace && wordCount > 0 ? 1 : 0);
+            tess2_0Format = words == 5;
+        }
+
+        if (fieldCount == 5 || fieldCount == 6) {
+            int x = intValue(1, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            int y = intValue(2, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            int w = intValue(3, Integer.MIN_VALUE, Integer.MAX_VALUE) - x;
+            int h = intValue(4, Integer.MIN_VALUE, Integer.MAX_VALUE) - y;
+            short page = fieldCount == 6 ? (short) intValue(5, Short.MIN_VALUE, Short.MAX_VALUE) : 0; // Tess 3.0x : Tess 2.0x format
+
+            // boxes of a later page close the current page
+            while (page > curPage && curPage < pageCount) {
+                curPage++;
+                if (curPage < pageCount) {
+                    curPageHeight = pageHeight.applyAsInt(curPage);
+                }
+            }
+
+            if (curPage < pageCount) {
+                // Note that the coordinate system used in the box file has (0,0) at the bottom-left.
+                // On computer graphics device, (0,0) is defined as top-left.
+                y = curPageHeight - y - h; // flip the y-coordinate
+                String chrs = line.substring(0, chrsEnd);
+                String shared = characters.putIfAbsent(chrs, chrs);
+                page(curPage).add(new TessBox(shared != null ? shared : chrs, x, y, w, h, page));
+            }
+        }
+
+        line.setLength(0);
+        fieldCount = 0;
+        chrsEnd = 0;
+        inField = false;
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.datamodel;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming box file writer. Boxes are encoded as UTF-8 straight into a
+ * buffer that is flushed to the channel when full, page by page, without
+ * building the whole file content in memory.
+ */
+public class BoxFileWriter implements Closeable {
+
+    static final String EOL = System.getProperty("line.separator");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] eol = EOL.getBytes(StandardCharsets.UTF_8);
+    private final byte[] digits = new byte[20];
+    private boolean tess2_0Format;
+
+    /**
+     * Creates a writer that replaces the content of a file.
+     *
+     * @param file box file
+     * @throws IOException
+     */
+    public BoxFileWriter(File file) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Creates a writer on a channel. The channel is closed when the writer
+     * is closed.
+     *
+     * @param channel output channel
+     */
+    public BoxFileWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Sets Tess 2.0x format, in which the page number of the first page is
+     * omitted.
+     *
+     * @param tess2_0Format
+     */
+    public void setTess2_0Format(boolean tess2_0Format) {
+        this.tess2_0Format = tess2_0Format;
+    }
+
+    /**
+     * Writes boxes of a page.
+     *
+     * @param boxes boxes of the page
+     * @param pageIndex page number to write
+     * @param pageHeight page height, used to flip y-coordinates
+     * @throws IOException
+     */
+    public void writePage(TessBoxCollection boxes, int pageIndex, int pageHeight) throws IOException {
+        for (TessBox box : boxes.toList()) {
+            write(box, pageIndex, pageHeight);
+        }
+    }
+
+    /**
+     * Writes a box.
+     * <p>
+     * Note that the coordinate system used in the box file has (0,0) at the
+     * bottom-left.
+     *
+     * @param box box
+     * @param pageIndex page number to write
+     * @param pageHeight page height, used to flip y-coordinates
+     * @throws IOException
+     */
+    public void write(TessBox box, int pageIndex, int pageHeight) throws IOException {
+        putChars(box.getCharacter());
+        putNumber(box.getX());
+        putNumber(pageHeight - box.getY() - box.getHeight());
+        putNumber(box.getX() + box.getWidth());
+        putNumber(pageHeight - box.getY());
+        if (!(tess2_0Format && pageIndex == 0)) {
+            putNumber(pageIndex);
+        }
+        ensureRemaining(eol.length);
+        buf.put(eol);
+    }
+
+    /**
+     * Flushes buffered data to the channel.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Rounds half up, the same as the <code>%.0f</code> format.
+     *
+     * @param value
+     * @return
+     */
+    static long round(double value) {
+        return value < 0 ? -(long) Math.floor(-value + 0.5) : (long) Math.floor(value + 0.5);
+    }
+
+    /**
+     * Encodes characters as UTF-8. Unpaired surrogates are written as '?'.
+     */
+    private void putChars(String chrs) throws IOException {
+        int len = chrs.length();
+        for (int i = 0; i < len; i++) {
+            char c = chrs.charAt(i);
+            ensureRemaining(4);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(chrs.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, chrs.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Writes a space followed by a decimal number.
+     */
+    private void putNumber(long value) throws IOException {
+        ensureRemaining(digits.length + 2);
+        buf.put((byte) ' ');
+        if (value < 0) {
+            buf.put((byte) '-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        while (n > 0) {
+            buf.put(digits[--n]);
+        }
+    }
+
+    private void ensureRemaining(int n) throws IOException {
+        if (buf.remaining() < n) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid spatial index of boxes. Each box is registered in every cell
+ * its rectangle touches, so the boxes that may contain a point are those of
+ * the point's cell.
+ */
+class BoxGrid {
+
+    private static final int CELL_SIZE = 64;
+
+    private final Map<Long, List<TessBox>> cells = new HashMap<Long, List<TessBox>>();
+
+    /**
+     * Adds a box at its current rectangle.
+     *
+     * @param box
+     */
+    void add(TessBox box) {
+        int minCol = cell(box.getX());
+        int maxCol = cell(box.getX() + box.getWidth());
+        int minRow = cell(box.getY());
+        int maxRow = cell(box.getY() + box.getHeight());
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                List<TessBox> boxes = cells.get(key(col, row));
+                if (boxes == null) {
+                    boxes = new ArrayList<TessBox>(4);
+                    cells.put(key(col, row), boxes);
+                }
+                boxes.add(box);
+            }
+        }
+    }
+
+    /**
+     * Removes a box registered at a rectangle.
+     *
+     * @param box
+     * @param x left of the rectangle the box was added at
+     * @param y top of the rectangle the box was added at
+     * @param width width of the rectangle the box was added at
+     * @param height height of the rectangle the box was added at
+     */
+    void remove(TessBox box, int x, int y, int width, int height) {
+        int minCol = cell(x);
+        int maxCol = cell(x + width);
+        int minRow = cell(y);
+        int maxRow = cell(y + height);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                Long key = key(col, row);
+                List<TessBox> boxes = cells.get(key);
+                if (boxes == null) {
+                    continue;
+                }
+                for (int i = boxes.size() - 1; i >= 0; i--) {
+                    if (boxes.get(i) == box) {
+                        boxes.remove(i);
+                        break;
+                    }
+                }
+                if (boxes.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the boxes whose rectangles may contain a point.
+     *
+     * @param x
+     * @param y
+     * @return candidate boxes, in no particular order
+     */
+    List<TessBox> candidates(double x, double y) {
+        List<TessBox> boxes = cells.get(key(cell(x), cell(y)));
+        return boxes != null ? boxes : Collections.<TessBox>emptyList();
+    }
+
+    /**
+     * Adds the boxes registered in the cells an area touches.
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @param boxes receives candidate boxes, possibly more than once
+     */
+    void collect(double minX, double minY, double maxX, double maxY, Collection<TessBox> boxes) {
+        int minCol = cell(minX);
+        int maxCol = cell(maxX);
+        int minRow = cell(minY);
+        int maxRow = cell(maxY);
+        if ((long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > cells.size()) {
+            // area covers more cells than are occupied
+            for (Map.Entry<Long, List<TessBox>> entry : cells.entrySet()) {
+                long key = entry.getKey();
+                int col = (int) (key >> 32);
+                int row = (int) key;
+                if (col >= minCol && col <= maxCol && row >= minRow && row <= maxRow) {
+                    boxes.addAll(entry.getValue());
+                }
+            }
+            return;
+        }
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                List<TessBox> found = cells.get(key(col, row));
+                if (found != null) {
+                    boxes.addAll(found);
+                }
+            }
+        }
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static Long key(int col, int row) {
+        return ((long) col << 32) | (row & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.datamodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Boxes of each page of a box file, parsed on first access. Opening only
+ * builds a {@link BoxFileIndex}; a page is parsed from its byte range when it
+ * is first retrieved. Pages may be retrieved from any thread.
+ * <p>
+ * Pages not yet parsed are read from the file, so it must not be changed while
+ * the list is in use. Copy the list, which parses every page, before
+ * rewriting the file.
+ */
+public class BoxPageList extends AbstractList<TessBoxCollection> {
+
+    private final File boxFile;
+    private final IntUnaryOperator pageHeight;
+    private final ObjIntConsumer<TessBoxCollection> pageLoaded;
+    private final BoxFileIndex index;
+    private final AtomicReferenceArray<TessBoxCollection> pages;
+
+    /**
+     * Indexes a box file.
+     *
+     * @param boxFile box file
+     * @param pageCount number of pages in the image
+     * @param pageHeight page height by page index, used to flip y-coordinates
+     * @param pageLoaded called with each page and its index once parsed, before
+     * it is returned; may be null
+     * @throws IOException
+     */
+    public BoxPageList(File boxFile, int pageCount, IntUnaryOperator pageHeight, ObjIntConsumer<TessBoxCollection> pageLoaded) throws IOException {
+        this.boxFile = boxFile;
+        this.pageHeight = pageHeight;
+        this.pageLoaded = pageLoaded;
+        try (FileChannel channel = FileChannel.open(boxFile.toPath(), StandardOpenOption.READ)) {
+            this.index = new BoxFileIndex(channel, pageCount);
+        }
+        this.pages = new AtomicReferenceArray<TessBoxCollection>(pageCount);
+    }
+
+    /**
+     * Gets boxes of a page, parsing the page if not yet loaded.
+     *
+     * @param pageIndex page index
+     * @return boxes of the page
+     * @throws UncheckedIOException if the box file cannot be read
+     * @throws NumberFormatException if a box coordinate is not a number
+     */
+    @Override
+    public TessBoxCollection get(int pageIndex) {
+        TessBoxCollection boxes = pages.get(pageIndex);
+        if (boxes != null) {
+            return boxes;
+        }
+
+        try {
+            boxes = readPage(pageIndex);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (pageLoaded != null) {
+            pageLoaded.accept(boxes, pageIndex);
+        }
+        // another thread may have loaded the page meanwhile
+        if (!pages.compareAndSet(pageIndex, null, boxes)) {
+            boxes = pages.get(pageIndex);
+        }
+        return boxes;
+    }
+
+    @Override
+    public int size() {
+        return pages.length();
+    }
+
+    /**
+     * Whether a page has been parsed.
+     *
+     * @param pageIndex page index
+     * @return true if loaded
+     */
+    public boolean isLoaded(int pageIndex) {
+        return pages.get(pageIndex) != null;
+    }
+
+    /**
+     * Whether the file is in Tess 2.0x format.
+     *
+     * @return true if Tess 2.0x format
+     */
+    public boolean isTess2_0Format() {
+        return index.isTess2_0Format();
+    }
+
+    private TessBoxCollection readPage(int pageIndex) throws IOException {
+        BoxFileReader reader = new BoxFileReader(size(), pageHeight);
+        try (FileChannel channel = FileChannel.open(boxFile.toPath(), StandardOpenOption.READ)) {
+            return reader.readPage(channel, pageIndex, index.getStart(pageIndex), index.getEnd(pageIndex), index.getLinesBefore(pageIndex));
+        }
+    }
+}
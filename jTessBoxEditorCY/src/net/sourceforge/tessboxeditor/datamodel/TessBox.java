@@ -21,27 +21,76 @@ import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
 
 /**
- * Box data model.
+ * Box data model. Coordinates are held as whole pixels; JavaFX properties are
+ * only created when first requested, such as by a table row showing the box.
+ * Readers share one string between boxes of the same character value.
  */
 public class TessBox {
 
-    private final SimpleStringProperty chrs;
-    private Rectangle2D rect;
-    private final SimpleIntegerProperty x;
-    private final SimpleIntegerProperty y;
-    private final SimpleIntegerProperty width;
-    private final SimpleIntegerProperty height;
+    private String chrs;
+    private int x;
+    private int y;
+    private int width;
+    private int height;
     private short page;
     private boolean selected;
+    private TessBoxCollection owner;
+    private Properties properties;
 
+    /**
+     * Properties of a box bound to a view.
+     */
+    private static class Properties {
+
+        final SimpleStringProperty chrs;
+        final SimpleIntegerProperty x;
+        final SimpleIntegerProperty y;
+        final SimpleIntegerProperty width;
+        final SimpleIntegerProperty height;
+
+        Properties(TessBox box) {
+            chrs = new SimpleStringProperty(box.getCharacter());
+            x = new SimpleIntegerProperty(box.x);
+            y = new SimpleIntegerProperty(box.y);
+            width = new SimpleIntegerProperty(box.width);
+            height = new SimpleIntegerProperty(box.height);
+            // edits through the property, such as by a table cell
+            chrs.addListener((obs, oldValue, newValue) -> box.characterSet(newValue));
+        }
+    }
+
+    /**
+     * Creates a box. Fractional coordinates are rounded to whole pixels.
+     *
+     * @param chrs character value
+     * @param rect bounding rectangle
+     * @param page page index
+     */
     public TessBox(String chrs, Rectangle2D rect, short page) {
-        this.chrs = new SimpleStringProperty(chrs);
+        this.chrs = chrs;
         this.page = page;
-        this.rect = rect;
-        this.x = new SimpleIntegerProperty((int) rect.getMinX());
-        this.y = new SimpleIntegerProperty((int) rect.getMinY());
-        this.width = new SimpleIntegerProperty((int) rect.getWidth());
-        this.height = new SimpleIntegerProperty((int) rect.getHeight());
+        setBounds(rect);
+    }
+
+    /**
+     * Creates a box.
+     *
+     * @param chrs character value
+     * @param x left
+     * @param y top
+     * @param width width
+     * @param height height
+     * @param page page index
+     * @throws IllegalArgumentException if width or height is negative
+     */
+    public TessBox(String chrs, int x, int y, int width, int height, short page) {
+        checkSize(width, height);
+        this.chrs = chrs;
+        this.page = page;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
     }
 
     /**
@@ -59,6 +108,21 @@ public class TessBox {
      * @param selected the selected to set
      */
     public void setSelected(boolean selected) {
+        if (this.selected != selected) {
+            this.selected = selected;
+            if (owner != null) {
+                owner.selectionChanged(this);
+            }
+        }
+    }
+
+    /**
+     * Sets the selected flag without notifying the collection, for
+     * collection-wide selection changes.
+     *
+     * @param selected
+     */
+    void updateSelected(boolean selected) {
         this.selected = selected;
     }
 
@@ -70,7 +134,7 @@ public class TessBox {
      * @return
      */
     boolean contains(int x, int y) {
-        return this.rect.contains(x, y);
+        return x >= this.x && x <= this.x + this.width && y >= this.y && y <= this.y + this.height;
     }
 
     /**
@@ -80,7 +144,41 @@ public class TessBox {
      * @return
      */
     boolean contains(Point2D p) {
-        return this.rect.contains(p);
+        double px = p.getX();
+        double py = p.getY();
+        return px >= this.x && px <= this.x + this.width && py >= this.y && py <= this.y + this.height;
+    }
+
+    /**
+     * Whether the box contains another box.
+     *
+     * @param box
+     * @return
+     */
+    boolean contains(TessBox box) {
+        return box.x >= this.x && box.x + box.width <= this.x + this.width
+                && box.y >= this.y && box.y + box.height <= this.y + this.height;
+    }
+
+    /**
+     * Whether the box intersects an area, edges included.
+     *
+     * @param area
+     * @return
+     */
+    boolean intersects(Rectangle2D area) {
+        return this.x <= area.getMaxX() && this.x + this.width >= area.getMinX()
+                && this.y <= area.getMaxY() && this.y + this.height >= area.getMinY();
+    }
+
+    /**
+     * Whether the box has the same bounding rectangle as another box.
+     *
+     * @param box
+     * @return
+     */
+    boolean hasSameBounds(TessBox box) {
+        return box.x == this.x && box.y == this.y && box.width == this.width && box.height == this.height;
     }
 
     /**
@@ -90,29 +188,80 @@ public class TessBox {
      */
     @Override
     public String toString() {
-        return String.format("%s %.0f %.0f %.0f %.0f %d", chrs, rect.getMinX(), rect.getMinY(), rect.getMaxX(), rect.getMaxY(), page);
+        return new StringBuilder(32).append(getCharacter())
+                .append(' ').append(x)
+                .append(' ').append(y)
+                .append(' ').append(x + width)
+                .append(' ').append(y + height)
+                .append(' ').append(page).toString();
     }
 
     /**
-     * Gets box bounding rectangle.
+     * Gets box bounding rectangle. A new rectangle is created on each call;
+     * use the coordinate getters where only numbers are needed.
      *
      * @return the rectangle
      */
     public Rectangle2D getRect() {
-        return this.rect;
+        return new Rectangle2D(x, y, width, height);
     }
 
     /**
-     * Sets box bounding rectangle.
+     * Sets box bounding rectangle. Fractional coordinates are rounded to
+     * whole pixels.
      *
      * @param rect the rectangle to set
      */
     public void setRect(Rectangle2D rect) {
-        this.rect = rect;
-        this.x.set((int) rect.getMinX());
-        this.y.set((int) rect.getMinY());
-        this.width.set((int) rect.getWidth());
-        this.height.set((int) rect.getHeight());
+        int oldX = x, oldY = y, oldWidth = width, oldHeight = height;
+        setBounds(rect);
+        moved(oldX, oldY, oldWidth, oldHeight);
+    }
+
+    /**
+     * Sets box bounding rectangle.
+     *
+     * @param x left
+     * @param y top
+     * @param width width
+     * @param height height
+     * @throws IllegalArgumentException if width or height is negative
+     */
+    public void setRect(int x, int y, int width, int height) {
+        checkSize(width, height);
+        int oldX = this.x, oldY = this.y, oldWidth = this.width, oldHeight = this.height;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        moved(oldX, oldY, oldWidth, oldHeight);
+    }
+
+    private void setBounds(Rectangle2D rect) {
+        // round the edges, so that the box file gets the same numbers as
+        // when they were written from the rectangle itself
+        x = (int) BoxFileWriter.round(rect.getMinX());
+        y = (int) BoxFileWriter.round(rect.getMinY());
+        width = (int) BoxFileWriter.round(rect.getMaxX()) - x;
+        height = (int) BoxFileWriter.round(rect.getMaxY()) - y;
+    }
+
+    private void moved(int oldX, int oldY, int oldWidth, int oldHeight) {
+        if (properties != null) {
+            properties.x.set(x);
+            properties.y.set(y);
+            properties.width.set(width);
+            properties.height.set(height);
+        }
+        if (owner != null) {
+            owner.boxMoved(this, oldX, oldY, oldWidth, oldHeight);
+        }
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Both width and height must be >= 0");
+        }
     }
 
     /**
@@ -121,7 +270,7 @@ public class TessBox {
      * @return the chrs
      */
     public String getCharacter() {
-        return chrs.get();
+        return chrs;
     }
 
     /**
@@ -130,43 +279,80 @@ public class TessBox {
      * @param value the chrs to set
      */
     public void setCharacter(String value) {
-        this.chrs.set(value);
+        if (properties != null) {
+            properties.chrs.set(value);
+        } else {
+            characterSet(value);
+        }
+    }
+
+    private void characterSet(String value) {
+        String oldValue = chrs;
+        this.chrs = value;
+        if (owner != null) {
+            owner.characterChanged(this, oldValue);
+        }
     }
 
     public SimpleStringProperty characterProperty() {
-        return chrs;
+        return properties().chrs;
     }
 
     public int getX() {
-        return this.x.get();
+        return this.x;
     }
 
     public SimpleIntegerProperty xProperty() {
-        return this.x;
+        return properties().x;
     }
 
     public int getY() {
-        return this.y.get();
+        return this.y;
     }
 
     public SimpleIntegerProperty yProperty() {
-        return this.y;
+        return properties().y;
     }
 
     public int getWidth() {
-        return this.width.get();
+        return this.width;
     }
 
     public SimpleIntegerProperty widthProperty() {
-        return this.width;
+        return properties().width;
     }
 
     public int getHeight() {
-        return this.height.get();
+        return this.height;
     }
 
     public SimpleIntegerProperty heightProperty() {
-        return this.height;
+        return properties().height;
+    }
+
+    private Properties properties() {
+        if (properties == null) {
+            properties = new Properties(this);
+        }
+        return properties;
+    }
+
+    /**
+     * Gets the collection the box is in.
+     *
+     * @return the collection, or null
+     */
+    TessBoxCollection getOwner() {
+        return owner;
+    }
+
+    /**
+     * Sets the collection the box is in.
+     *
+     * @param owner the collection
+     */
+    void setOwner(TessBoxCollection owner) {
+        this.owner = owner;
     }
 
     /**
@@ -16,24 +16,67 @@
 package net.sourceforge.tessboxeditor.datamodel;
 
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import net.sourceforge.tessboxeditor.utilities.CodePointSet;
 
 /**
  * Operations on collection of boxes.
  */
 public class TessBoxCollection {
 
-    private String appendingSymbols;
-    private String prependingSymbols;
+    private CodePointSet appendingSymbols;
+    private CodePointSet prependingSymbols;
     private ObservableList<TessBox> list; // = FXCollections.observableArrayList();
+    private BoxGrid grid; // spatial index for hit-testing, built on first use
+    private Map<TessBox, Integer> positions; // position of each box, built on first use
+    private BitSet selection; // positions of selected boxes, built on first use
+    private List<TessBox> selectedBoxes; // selected boxes in list order, built on first use
+    private boolean batching; // within batch edits
+    private final List<BoxChangeListener> changeListeners = new ArrayList<BoxChangeListener>(1);
+
+    private final ListChangeListener<TessBox> listListener = change -> {
+        positions = null;
+        selection = null;
+        selectedBoxes = null;
+        while (change.next()) {
+            for (TessBox box : change.getRemoved()) {
+                if (grid != null) {
+                    grid.remove(box, box.getX(), box.getY(), box.getWidth(), box.getHeight());
+                }
+                if (box.getOwner() == this) {
+                    box.setOwner(null);
+                }
+                fireBoxChanged(box);
+            }
+            for (TessBox box : change.getAddedSubList()) {
+                box.setOwner(this);
+                if (grid != null) {
+                    grid.add(box);
+                }
+                fireBoxChanged(box);
+            }
+        }
+    };
 
     public TessBoxCollection() {
         list = FXCollections.observableArrayList();
+        list.addListener(listListener);
     }
 
     /**
@@ -50,7 +93,23 @@ public class TessBoxCollection {
      *
      */
     public void setBoxes(ObservableList<TessBox> boxes) {
+        list.removeListener(listListener);
+        for (TessBox box : list) {
+            if (box.getOwner() == this) {
+                box.setOwner(null);
+            }
+            fireBoxChanged(box);
+        }
         list = boxes;
+        for (TessBox box : list) {
+            box.setOwner(this);
+            fireBoxChanged(box);
+        }
+        list.addListener(listListener);
+        grid = null;
+        positions = null;
+        selection = null;
+        selectedBoxes = null;
     }
 
 
@@ -68,8 +127,115 @@ public class TessBoxCollection {
      * Deselects all boxes.
      */
     public void deselectAll() {
-        for (TessBox box : list) {
-            box.setSelected(false);
+        BitSet selected = getSelection();
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            TessBox box = list.get(i);
+            box.updateSelected(false);
+            fireBoxChanged(box);
+        }
+        selected.clear();
+        selectedBoxes = null;
+    }
+
+    /**
+     * Selects the boxes in a range of positions that pass a filter, updating
+     * the selection once rather than box by box.
+     *
+     * @param fromIndex first position, inclusive
+     * @param toIndex last position, exclusive
+     * @param filter boxes to select
+     */
+    public void selectRange(int fromIndex, int toIndex, Predicate<TessBox> filter) {
+        BitSet selected = getSelection();
+        for (int i = fromIndex; i < toIndex; i++) {
+            TessBox box = list.get(i);
+            if (!box.isSelected() && filter.test(box)) {
+                box.updateSelected(true);
+                selected.set(i);
+                fireBoxChanged(box);
+            }
+        }
+        selectedBoxes = null;
+    }
+
+    /**
+     * Gets number of selected boxes.
+     *
+     * @return
+     */
+    public int selectedCount() {
+        return getSelection().cardinality();
+    }
+
+    /**
+     * Gets positions of selected boxes. The bits are kept in step with
+     * {@link TessBox#setSelected(boolean)} and rebuilt from the boxes after
+     * the list changes.
+     */
+    private BitSet getSelection() {
+        if (selection == null) {
+            selection = new BitSet(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i).isSelected()) {
+                    selection.set(i);
+                }
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * Updates the selection model for a box that was selected or deselected.
+     *
+     * @param box
+     */
+    void selectionChanged(TessBox box) {
+        selectedBoxes = null;
+        if (selection != null) {
+            int index = indexOf(box);
+            if (index >= 0) {
+                selection.set(index, box.isSelected());
+            }
+        }
+        fireBoxChanged(box);
+    }
+
+    /**
+     * Notifies listeners that the character value of a box changed.
+     *
+     * @param box
+     * @param oldCharacter the value before the change
+     */
+    void characterChanged(TessBox box, String oldCharacter) {
+        fireBoxChanged(box, oldCharacter, box.getX(), box.getY(), box.getWidth(), box.getHeight());
+    }
+
+    /**
+     * Adds a listener notified when a box changes in a way that affects how
+     * it is drawn.
+     *
+     * @param listener
+     */
+    public void addBoxChangeListener(BoxChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Removes a box change listener.
+     *
+     * @param listener
+     */
+    public void removeBoxChangeListener(BoxChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    private void fireBoxChanged(TessBox box) {
+        fireBoxChanged(box, box.getCharacter(), box.getX(), box.getY(), box.getWidth(), box.getHeight());
+    }
+
+    private void fireBoxChanged(TessBox box, String character, int x, int y, int width, int height) {
+        for (int i = 0; i < changeListeners.size(); i++) {
+            changeListeners.get(i).boxChanged(box, character, x, y, width, height);
         }
     }
 
@@ -89,12 +255,13 @@ public class TessBoxCollection {
      * @return
      */
     public TessBox select(TessBox findBox) {
-        for (TessBox box : list) {
-            if (box.getRect().equals(findBox.getRect())) {
-                return box;
+        List<TessBox> matches = new ArrayList<TessBox>(1);
+        for (TessBox box : getGrid().candidates(findBox.getX(), findBox.getY())) {
+            if (box.hasSameBounds(findBox)) {
+                matches.add(box);
             }
         }
-        return null;
+        return first(matches);
     }
 
     /**
@@ -111,7 +278,7 @@ public class TessBoxCollection {
             searchList = list;
         } else {
             TessBox lastSelectedBox = selectedBoxes.get(selectedBoxes.size() - 1);
-            int index = list.indexOf(lastSelectedBox);
+            int index = indexOf(lastSelectedBox);
             searchList = list.subList(index + 1, list.size());
         }
 
@@ -130,12 +297,13 @@ public class TessBoxCollection {
      * @return
      */
     public TessBox hitObject(Point2D p) {
-        for (TessBox box : list) {
+        List<TessBox> matches = new ArrayList<TessBox>(1);
+        for (TessBox box : getGrid().candidates(p.getX(), p.getY())) {
             if (box.contains(p)) {
-                return box;
+                matches.add(box);
             }
         }
-        return null;
+        return first(matches);
     }
 
     /**
@@ -150,33 +318,114 @@ public class TessBoxCollection {
     }
 
     /**
-     * Gets selected boxes.
+     * Gets the boxes whose rectangles intersect an area.
+     *
+     * @param area
+     * @return the boxes, in list order
+     */
+    public List<TessBox> intersecting(Rectangle2D area) {
+        Set<TessBox> found = Collections.newSetFromMap(new IdentityHashMap<TessBox, Boolean>());
+        getGrid().collect(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY(), found);
+        List<TessBox> boxes = new ArrayList<TessBox>(found.size());
+        for (TessBox box : found) {
+            if (box.intersects(area)) {
+                boxes.add(box);
+            }
+        }
+        boxes.sort(Comparator.comparingInt(this::indexOf));
+        return boxes;
+    }
+
+    /**
+     * Gets the box that comes first in the list, as a linear search would
+     * find.
+     */
+    private TessBox first(List<TessBox> matches) {
+        TessBox first = null;
+        int firstIndex = Integer.MAX_VALUE;
+        for (TessBox match : matches) {
+            int index = matches.size() == 1 ? 0 : indexOf(match);
+            if (index < firstIndex) {
+                first = match;
+                firstIndex = index;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Gets the position of a box in the list. Positions are looked up in an
+     * index that is rebuilt on the first lookup after the list changes.
+     *
+     * @param box
+     * @return the index, or -1 if the box is not in the list
+     */
+    public int indexOf(TessBox box) {
+        if (positions == null) {
+            positions = new IdentityHashMap<TessBox, Integer>(list.size());
+            for (int i = list.size() - 1; i >= 0; i--) {
+                positions.put(list.get(i), i); // first occurrence wins
+            }
+        }
+        Integer index = positions.get(box);
+        return index != null ? index : -1;
+    }
+
+    private BoxGrid getGrid() {
+        if (grid == null) {
+            grid = new BoxGrid();
+            for (TessBox box : list) {
+                grid.add(box);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Updates the spatial index for a box whose rectangle changed.
+     *
+     * @param box
+     * @param oldX
+     * @param oldY
+     * @param oldWidth
+     * @param oldHeight
+     */
+    void boxMoved(TessBox box, int oldX, int oldY, int oldWidth, int oldHeight) {
+        if (batching) {
+            grid = null; // rebuilt once on next use
+        } else if (grid != null) {
+            grid.remove(box, oldX, oldY, oldWidth, oldHeight);
+            grid.add(box);
+        }
+        fireBoxChanged(box, box.getCharacter(), oldX, oldY, oldWidth, oldHeight);
+    }
+
+    /**
+     * Gets selected boxes in list order. The list is a snapshot that is reused
+     * until the selection or the box list changes.
      *
      * @return
      */
     public List<TessBox> getSelectedBoxes() {
-        List<TessBox> selected = new ArrayList<TessBox>();
-        for (TessBox box : list) {
-            if (box.isSelected()) {
-                selected.add(box);
+        if (selectedBoxes == null) {
+            BitSet selected = getSelection();
+            List<TessBox> boxes = new ArrayList<TessBox>(selected.cardinality());
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                boxes.add(list.get(i));
             }
+            selectedBoxes = Collections.unmodifiableList(boxes);
         }
-        return selected;
+        return selectedBoxes;
     }
     public ObservableList<TessBox> getObservableSelectedBoxes() {
-        ObservableList<TessBox> selected =FXCollections.observableArrayList();;
-        for (TessBox box : list) {
-            if (box.isSelected()) {
-                selected.add(box);
-            }
-        }
-        return selected;
+        return FXCollections.observableArrayList(getSelectedBoxes());
     }
 
     /**
      * Sets combining symbols.
      *
-     * @param combiningSymbols
+     * @param combiningSymbols character classes of appending and prepending
+     * symbols, separated by a semicolon
      */
     public void setCombiningSymbols(String combiningSymbols) {
         if (combiningSymbols == null) {
@@ -184,38 +433,44 @@ public class TessBoxCollection {
         }
         String[] str = combiningSymbols.split(";");
         if (str.length > 0) {
-            this.appendingSymbols = str[0];
+            this.appendingSymbols = toSymbolSet(str[0]);
         }
         if (str.length > 1) {
-            this.prependingSymbols = str[1];
+            this.prependingSymbols = toSymbolSet(str[1]);
         }
     }
 
+    private static CodePointSet toSymbolSet(String symbols) {
+        return symbols.trim().length() > 0 ? CodePointSet.parse(symbols) : null;
+    }
+
     /**
      * Combines boxes that have the same coordinates or combining symbols with
      * main/base character. The new resultant value will be the combined values.
+     * The list is compacted in one pass and replaced in a single change.
      */
     public void combineBoxes() {
+        List<TessBox> kept = new ArrayList<TessBox>(list.size());
         TessBox prev = null;
-        for (TessBox box : list.toArray(new TessBox[list.size()])) {
-            if (prev != null && (box.getRect().equals(prev.getRect()) || prev.getRect().contains(box.getRect()))) {
-                list.remove(box);
+        for (TessBox box : list) {
+            if (prev != null && prev.contains(box)) {
                 prev.setCharacter(prev.getCharacter() + box.getCharacter());
-            } else if (prev != null && ((appendingSymbols != null && appendingSymbols.trim().length() > 0 && box.getCharacter().matches("[" + appendingSymbols + "]"))
-                    || (prependingSymbols != null && prependingSymbols.trim().length() > 0 && prev.getCharacter().matches("[" + prependingSymbols + "]")))) {
-                list.remove(box);
+            } else if (prev != null && ((appendingSymbols != null && appendingSymbols.matches(box.getCharacter()))
+                    || (prependingSymbols != null && prependingSymbols.matches(prev.getCharacter())))) {
                 prev.setCharacter(prev.getCharacter() + box.getCharacter());
-                Rectangle2D prevRect = prev.getRect();
-                Rectangle2D curRect = box.getRect();
-                double minX = Math.min(prevRect.getMinX(), curRect.getMinX());
-                double minY = Math.min(prevRect.getMinY(), curRect.getMinY());
-                double maxX = Math.max(prevRect.getMaxX(), curRect.getMaxX());
-                double maxY = Math.max(prevRect.getMaxY(), curRect.getMaxY());
-                prev.setRect(new Rectangle2D(minX, minY, maxX - minX, maxY - minY));
+                int minX = Math.min(prev.getX(), box.getX());
+                int minY = Math.min(prev.getY(), box.getY());
+                int maxX = Math.max(prev.getX() + prev.getWidth(), box.getX() + box.getWidth());
+                int maxY = Math.max(prev.getY() + prev.getHeight(), box.getY() + box.getHeight());
+                prev.setRect(minX, minY, maxX - minX, maxY - minY);
             } else {
+                kept.add(box);
                 prev = box;
             }
         }
+        if (kept.size() < list.size()) {
+            list.setAll(kept);
+        }
     }
 
     /**
@@ -228,6 +483,130 @@ public class TessBoxCollection {
         return list.remove(box);
     }
 
+    /**
+     * Removes boxes from list in a single pass and a single list change.
+     *
+     * @param boxes
+     * @return true if any box was removed
+     */
+    public boolean removeAll(Collection<TessBox> boxes) {
+        return batch(edits -> boxes.forEach(edits::remove));
+    }
+
+    /**
+     * Applies many edits as one. Inserts and removes are collected and
+     * applied after <code>edits</code> returns: listeners of the list see the
+     * removals as one change and each run of boxes inserted at one position
+     * as another, and only the boxes removed or inserted are reported.
+     * Rectangle changes take effect at once, but the spatial index is rebuilt
+     * only once on next use.
+     *
+     * @param edits the edits to apply
+     * @return true if boxes were inserted or removed
+     */
+    public boolean batch(Consumer<Batch> edits) {
+        Batch batch = new Batch();
+        batching = true;
+        try {
+            edits.accept(batch);
+        } finally {
+            batching = false;
+        }
+        return batch.apply();
+    }
+
+    /**
+     * Edits collected by {@link #batch(Consumer)}. Positions refer to the
+     * list as it was before the batch.
+     */
+    public class Batch {
+
+        private final Set<TessBox> removed = Collections.newSetFromMap(new IdentityHashMap<TessBox, Boolean>());
+        private final TreeMap<Integer, List<TessBox>> inserted = new TreeMap<Integer, List<TessBox>>();
+
+        private Batch() {
+        }
+
+        /**
+         * Adds a box to the end of list.
+         *
+         * @param box
+         */
+        public void add(TessBox box) {
+            insert(list.size(), box);
+        }
+
+        /**
+         * Inserts a box before the box at a position. Boxes inserted at the
+         * same position keep the order they were inserted in.
+         *
+         * @param index position in the list before the batch
+         * @param box
+         */
+        public void insert(int index, TessBox box) {
+            if (index < 0 || index > list.size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + list.size());
+            }
+            List<TessBox> boxes = inserted.get(index);
+            if (boxes == null) {
+                boxes = new ArrayList<TessBox>(1);
+                inserted.put(index, boxes);
+            }
+            boxes.add(box);
+        }
+
+        /**
+         * Removes a box that was in the list before the batch.
+         *
+         * @param box
+         */
+        public void remove(TessBox box) {
+            removed.add(box);
+        }
+
+        /**
+         * Sets the bounding rectangle of a box.
+         *
+         * @param box
+         * @param x
+         * @param y
+         * @param width
+         * @param height
+         */
+        public void setRect(TessBox box, int x, int y, int width, int height) {
+            box.setRect(x, y, width, height);
+        }
+
+        private boolean apply() {
+            if (inserted.isEmpty() && removed.isEmpty()) {
+                return false;
+            }
+            // insertion positions once the removed boxes are gone
+            int[] targets = new int[inserted.size()];
+            int removedBefore = 0;
+            int i = 0;
+            int k = 0;
+            for (int index : inserted.keySet()) {
+                for (; i < index; i++) {
+                    if (removed.contains(list.get(i))) {
+                        removedBefore++;
+                    }
+                }
+                targets[k++] = index - removedBefore;
+            }
+
+            boolean changed = !removed.isEmpty() && list.removeAll(removed);
+            int added = 0;
+            k = 0;
+            for (List<TessBox> boxes : inserted.values()) {
+                list.addAll(targets[k++] + added, boxes);
+                added += boxes.size();
+                changed = true;
+            }
+            return changed;
+        }
+    }
+
     /**
      * Removes a box from list by index.
      *
@@ -0,0 +1,151 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.utilities;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Set of code points given as the content of a regular expression character
+ * class, such as <code>a-z0-9</code>. Literal characters, ranges and
+ * escaped literals are held as sorted code point ranges; any other class
+ * syntax, such as <code>\p{M}</code>, is matched with the class compiled once
+ * as a pattern.
+ */
+public final class CodePointSet {
+
+    private final int[] ranges; // sorted, non-overlapping [start, end] pairs
+    private final Pattern pattern; // for class syntax not parsed into ranges
+
+    private CodePointSet(int[] ranges, Pattern pattern) {
+        this.ranges = ranges;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Parses the content of a character class.
+     *
+     * @param charClass character class without the enclosing brackets
+     * @return the set
+     * @throws java.util.regex.PatternSyntaxException if the class is not valid
+     */
+    public static CodePointSet parse(String charClass) {
+        int[] cps = charClass.codePoints().toArray();
+        int[] ranges = new int[cps.length * 2];
+        int count = 0;
+
+        for (int i = 0; i < cps.length; i++) {
+            int start = cps[i];
+            if (start == '\\') {
+                if (i + 1 == cps.length || Character.isLetterOrDigit(cps[i + 1])) {
+                    return compile(charClass); // predefined class or escape sequence
+                }
+                start = cps[++i];
+            } else if (start == '[' || start == ']' || start == '&' || start == '^' && i == 0) {
+                return compile(charClass); // nested class, intersection or negation
+            }
+
+            int end = start;
+            if (i + 2 < cps.length && cps[i + 1] == '-') {
+                end = cps[i + 2];
+                if (end == '\\' || end == '[' || end == ']' || end == '&') {
+                    return compile(charClass);
+                }
+                if (end < start) {
+                    compile(charClass); // reports the illegal range
+                }
+                i += 2;
+            }
+            ranges[count++] = start;
+            ranges[count++] = end;
+        }
+
+        return new CodePointSet(merge(ranges, count), null);
+    }
+
+    private static CodePointSet compile(String charClass) {
+        return new CodePointSet(null, Pattern.compile("[" + charClass + "]"));
+    }
+
+    /**
+     * Sorts ranges and joins those that overlap or touch.
+     */
+    private static int[] merge(int[] ranges, int count) {
+        long[] sorted = new long[count / 2];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ((long) ranges[2 * i] << 32) | ranges[2 * i + 1];
+        }
+        Arrays.sort(sorted);
+
+        int[] merged = new int[count];
+        int size = 0;
+        for (long range : sorted) {
+            int start = (int) (range >>> 32);
+            int end = (int) range;
+            if (size > 0 && start <= merged[size - 1] + 1) {
+                merged[size - 1] = Math.max(merged[size - 1], end);
+            } else {
+                merged[size++] = start;
+                merged[size++] = end;
+            }
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * Whether the set contains a code point.
+     *
+     * @param codePoint
+     * @return
+     */
+    public boolean contains(int codePoint) {
+        if (pattern != null) {
+            return pattern.matcher(new String(Character.toChars(codePoint))).matches();
+        }
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (codePoint < ranges[2 * mid]) {
+                high = mid - 1;
+            } else if (codePoint > ranges[2 * mid + 1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a string is a single code point in the set, the same as
+     * matching it against the character class.
+     *
+     * @param s
+     * @return
+     */
+    public boolean matches(String s) {
+        if (pattern != null) {
+            return pattern.matcher(s).matches();
+        }
+        int length = s.length();
+        if (length == 0 || length > 2) {
+            return false;
+        }
+        int codePoint = s.codePointAt(0);
+        return Character.charCount(codePoint) == length && contains(codePoint);
+    }
+}
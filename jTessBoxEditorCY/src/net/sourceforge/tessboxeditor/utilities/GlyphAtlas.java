@@ -0,0 +1,270 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.utilities;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Graphemes of one font rendered once and kept for drawing pages. Each entry
+ * holds the advance, the outline and ink bounds, and the grey pixels it
+ * covers, all relative to the pen position on the baseline. Pages are
+ * composed by copying entries into their rasters, darkest pixel winning, at
+ * whole pixel positions. Atlases are shared by font and rendering mode, so
+ * files generated in one run reuse each other's glyphs, and are safe to use
+ * from several threads.
+ */
+public final class GlyphAtlas {
+
+    private static final int MAX_ATLASES = 8;
+    private static final int PADDING = 2; // room for anti-aliased ink outside the outline
+    private static final LruCache<Key, GlyphAtlas> atlases = new LruCache<Key, GlyphAtlas>(MAX_ATLASES, atlas -> 1);
+
+    private final Font font;
+    private final boolean antiAliased;
+    private final FontRenderContext frc;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Font and rendering mode of an atlas.
+     */
+    private static class Key {
+
+        final Font font;
+        final boolean antiAliased;
+
+        Key(Font font, boolean antiAliased) {
+            this.font = font;
+            this.antiAliased = antiAliased;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return font.equals(other.font) && antiAliased == other.antiAliased;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(font, antiAliased);
+        }
+    }
+
+    /**
+     * Rendered grapheme.
+     */
+    public static final class Entry {
+
+        private final float advance;
+        private final Rectangle outline;
+        private final Rectangle ink;
+        private final Rectangle drawn;
+        private final byte[] pixels; // grey, row by row within the drawn bounds
+
+        Entry(float advance, Rectangle outline, Rectangle ink, Rectangle drawn, byte[] pixels) {
+            this.advance = advance;
+            this.outline = outline;
+            this.ink = ink;
+            this.drawn = drawn;
+            this.pixels = pixels;
+        }
+
+        /**
+         * Gets the advance width.
+         *
+         * @return advance in pixels
+         */
+        public float getAdvance() {
+            return advance;
+        }
+
+        /**
+         * Gets the bounds of the glyph outlines, relative to the pen position.
+         *
+         * @return outline bounds
+         */
+        public Rectangle getOutlineBounds() {
+            return new Rectangle(outline);
+        }
+
+        /**
+         * Gets the bounds of the rendered ink, relative to the pen position.
+         *
+         * @return ink bounds, or null if the grapheme has no ink
+         */
+        public Rectangle getInkBounds() {
+            return ink == null ? null : new Rectangle(ink);
+        }
+
+        /**
+         * Draws the grapheme into a page. Pixels outside the page are
+         * skipped.
+         *
+         * @param page 8-bit grey or 1-bit page image, black on white
+         * @param x pen position
+         * @param y baseline
+         */
+        public void drawTo(BufferedImage page, int x, int y) {
+            if (drawn == null) {
+                return;
+            }
+            int left = x + drawn.x;
+            int top = y + drawn.y;
+            int minCol = Math.max(0, -left);
+            int maxCol = Math.min(drawn.width, page.getWidth() - left);
+            int minRow = Math.max(0, -top);
+            int maxRow = Math.min(drawn.height, page.getHeight() - top);
+            if (minCol >= maxCol || minRow >= maxRow) {
+                return;
+            }
+
+            byte[] data = ((DataBufferByte) page.getRaster().getDataBuffer()).getData();
+            if (page.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+                int stride = page.getWidth();
+                for (int row = minRow; row < maxRow; row++) {
+                    int d = (top + row) * stride + left + minCol;
+                    for (int s = row * drawn.width + minCol, end = row * drawn.width + maxCol; s < end; s++, d++) {
+                        if ((pixels[s] & 0xFF) < (data[d] & 0xFF)) {
+                            data[d] = pixels[s];
+                        }
+                    }
+                }
+            } else {
+                // index 0 of a 1-bit image is black
+                int stride = ((MultiPixelPackedSampleModel) page.getSampleModel()).getScanlineStride();
+                for (int row = minRow; row < maxRow; row++) {
+                    int rowStart = (top + row) * stride;
+                    for (int col = minCol, s = row * drawn.width + minCol; col < maxCol; col++, s++) {
+                        if ((pixels[s] & 0xFF) < InkBounds.DEFAULT_THRESHOLD) {
+                            int px = left + col;
+                            data[rowStart + (px >> 3)] &= ~(0x80 >> (px & 7));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private GlyphAtlas(Font font, boolean antiAliased) {
+        this.font = font;
+        this.antiAliased = antiAliased;
+        this.frc = new FontRenderContext(null, antiAliased, true);
+    }
+
+    /**
+     * Gets the atlas of a font and rendering mode, creating it if needed.
+     *
+     * @param font font, including size and style
+     * @param antiAliased whether glyphs are anti-aliased
+     * @return the atlas
+     */
+    public static GlyphAtlas get(Font font, boolean antiAliased) {
+        Key key = new Key(font, antiAliased);
+        synchronized (atlases) {
+            GlyphAtlas atlas = atlases.get(key);
+            if (atlas == null) {
+                atlas = new GlyphAtlas(font, antiAliased);
+                atlases.put(key, atlas);
+            }
+            return atlas;
+        }
+    }
+
+    /**
+     * Gets a grapheme, rendering it on first use.
+     *
+     * @param grapheme one or more code points drawn as a unit
+     * @return the rendered grapheme
+     */
+    public Entry get(String grapheme) {
+        return entries.computeIfAbsent(grapheme, this::render);
+    }
+
+    /**
+     * Gets the render context of the atlas's rendering mode.
+     *
+     * @return the render context
+     */
+    public FontRenderContext getFontRenderContext() {
+        return frc;
+    }
+
+    /**
+     * Gets the number of graphemes rendered.
+     *
+     * @return number of graphemes
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private Entry render(String grapheme) {
+        TextLayout layout = new TextLayout(grapheme, font, frc);
+        Rectangle2D bounds = layout.getBounds();
+        Rectangle outline = bounds.getBounds();
+        if (outline.isEmpty()) {
+            return new Entry(layout.getAdvance(), outline, null, null, null);
+        }
+
+        // pen position within the scratch image
+        int originX = PADDING - outline.x;
+        int originY = PADDING - outline.y;
+        BufferedImage scratch = new BufferedImage(outline.width + 2 * PADDING, outline.height + 2 * PADDING, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g2d = scratch.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, scratch.getWidth(), scratch.getHeight());
+        g2d.setColor(Color.BLACK);
+        g2d.setFont(font);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                antiAliased ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        g2d.drawString(grapheme, originX, originY);
+        g2d.dispose();
+
+        // every pixel touched is kept, but only dark ones count as ink
+        Rectangle whole = new Rectangle(0, 0, scratch.getWidth(), scratch.getHeight());
+        Rectangle drawn = new InkBounds(scratch, 255).tighten(whole);
+        Rectangle ink = new InkBounds(scratch).tighten(whole);
+        if (drawn == null) {
+            return new Entry(layout.getAdvance(), outline, null, null, null);
+        }
+        byte[] data = ((DataBufferByte) scratch.getRaster().getDataBuffer()).getData();
+        byte[] pixels = new byte[drawn.width * drawn.height];
+        for (int row = 0; row < drawn.height; row++) {
+            System.arraycopy(data, (drawn.y + row) * scratch.getWidth() + drawn.x, pixels, row * drawn.width, drawn.width);
+        }
+        drawn.translate(-originX, -originY);
+        if (ink != null) {
+            ink.translate(-originX, -originY);
+        }
+        return new Entry(layout.getAdvance(), outline, ink, drawn, pixels);
+    }
+}
@@ -0,0 +1,553 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.utilities;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Pages of a (multi-page) image, decoded on demand. Opening reads only the
+ * page count; a page is decoded when first retrieved. Decoded pages and their
+ * FX images are kept in a least-recently-used cache bounded by a memory
+ * budget in bytes. Page sizes are read from the image headers without
+ * decoding. Pages may be retrieved from any thread. Only the reader is locked
+ * while decoding, so cached pages and tiles are retrieved without waiting for
+ * another page being decoded or converted.
+ * <p>
+ * Pages too large to show as one FX image are read in tiles instead, each
+ * decoded from its region of the file when first retrieved and kept in a
+ * second cache.
+ */
+public class ImagePageList extends AbstractList<BufferedImage> implements Closeable {
+
+    /**
+     * Default cache budget: a quarter of the maximum heap.
+     */
+    public static final long DEFAULT_CACHE_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    /**
+     * Width and height of a tile, in pixels of its level.
+     */
+    public static final int TILE_SIZE = 512;
+
+    private static final int MAX_UNTILED_SIZE = 8192; // texture size all graphics pipelines support
+    private static final long MAX_UNTILED_PIXELS = 32L * 1024 * 1024;
+
+    // Locks are never nested: this guards the page cache and sizes, tiles
+    // guards itself and readLock guards the reader.
+    private final Object readLock = new Object();
+    private final ImageInputStream iis;
+    private final ImageReader reader;
+    private final int pageCount;
+    private final int[] widths;
+    private final int[] heights;
+    private final LruCache<Integer, CachedPage> cache;
+    private final LruCache<TileKey, Image> tiles;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Decoded page and, once converted, its FX image and downsampled levels.
+     */
+    private static class CachedPage {
+
+        final BufferedImage image;
+        final Image fxImage;
+        final Image[] levels;
+
+        CachedPage(BufferedImage image, Image fxImage, Image[] levels) {
+            this.image = image;
+            this.fxImage = fxImage;
+            this.levels = levels;
+        }
+
+        long sizeInBytes() {
+            DataBuffer buffer = image.getRaster().getDataBuffer();
+            long size = (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+            if (fxImage != null) {
+                size += sizeInBytes(fxImage);
+            }
+            if (levels != null) {
+                for (Image level : levels) {
+                    size += sizeInBytes(level);
+                }
+            }
+            return size;
+        }
+
+        static long sizeInBytes(Image fxImage) {
+            return (long) fxImage.getWidth() * (long) fxImage.getHeight() * 4; // 32-bit ARGB
+        }
+    }
+
+    /**
+     * Identifies a tile by page, level, column and row.
+     */
+    private static class TileKey {
+
+        final int pageIndex;
+        final int level;
+        final int col;
+        final int row;
+
+        TileKey(int pageIndex, int level, int col, int row) {
+            this.pageIndex = pageIndex;
+            this.level = level;
+            this.col = col;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            return pageIndex == other.pageIndex && level == other.level && col == other.col && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((pageIndex * 31 + level) * 31 + col) * 31 + row;
+        }
+    }
+
+    /**
+     * Opens an image file with the default cache budget.
+     *
+     * @param imageFile image file
+     * @throws IOException if the file cannot be read or is not a supported
+     * image
+     */
+    public ImagePageList(File imageFile) throws IOException {
+        this(imageFile, DEFAULT_CACHE_BUDGET);
+    }
+
+    /**
+     * Opens an image file.
+     *
+     * @param imageFile image file
+     * @param cacheBudget maximum bytes of decoded pages and FX images to keep;
+     * the page last retrieved is always kept. Tiles have a separate budget of
+     * a quarter of this.
+     * @throws IOException if the file cannot be read or is not a supported
+     * image
+     */
+    public ImagePageList(File imageFile, long cacheBudget) throws IOException {
+        cache = new LruCache<Integer, CachedPage>(cacheBudget, CachedPage::sizeInBytes);
+        tiles = new LruCache<TileKey, Image>(cacheBudget / 4, CachedPage::sizeInBytes);
+        iis = ImageIO.createImageInputStream(imageFile);
+        if (iis == null) {
+            throw new IOException("Cannot open " + imageFile.getName());
+        }
+        String imageFileName = imageFile.getName();
+        String imageFormat = imageFileName.substring(imageFileName.lastIndexOf('.') + 1);
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(imageFormat);
+        if (!readers.hasNext()) {
+            readers = ImageIO.getImageReaders(iis);
+        }
+        if (!readers.hasNext()) {
+            iis.close();
+            throw new IOException("Unsupported image format: " + imageFormat);
+        }
+        reader = readers.next();
+        reader.setInput(iis, false, true);
+        pageCount = reader.getNumImages(true);
+        widths = new int[pageCount];
+        heights = new int[pageCount];
+        Arrays.fill(widths, -1);
+        Arrays.fill(heights, -1);
+    }
+
+    /**
+     * Gets a page, decoding it if not cached.
+     *
+     * @param pageIndex page index
+     * @return page image
+     * @throws UncheckedIOException if the page cannot be decoded
+     */
+    @Override
+    public BufferedImage get(int pageIndex) {
+        synchronized (this) {
+            CachedPage page = cache.get(pageIndex);
+            if (page != null) {
+                hits.incrementAndGet();
+                return page.image;
+            }
+        }
+        misses.incrementAndGet();
+        BufferedImage image = read(pageIndex);
+        synchronized (this) {
+            CachedPage page = cache.get(pageIndex);
+            if (page != null) {
+                return page.image; // decoded meanwhile by another thread
+            }
+            cache.put(pageIndex, new CachedPage(image, null, null));
+        }
+        return image;
+    }
+
+    /**
+     * Gets a page as an FX image, decoding and converting it if not cached.
+     *
+     * @param pageIndex page index
+     * @return page image
+     * @throws UncheckedIOException if the page cannot be decoded
+     */
+    public Image getFXImage(int pageIndex) {
+        CachedPage page;
+        synchronized (this) {
+            page = cache.get(pageIndex);
+            if (page != null && page.fxImage != null) {
+                hits.incrementAndGet();
+                return page.fxImage;
+            }
+        }
+        misses.incrementAndGet();
+        BufferedImage image = page != null ? page.image : read(pageIndex);
+        Image fxImage = SwingFXUtils.toFXImage(image, null);
+        synchronized (this) {
+            page = cache.get(pageIndex);
+            if (page != null && page.fxImage != null) {
+                return page.fxImage; // converted meanwhile by another thread
+            }
+            cache.put(pageIndex, new CachedPage(image, fxImage, null));
+        }
+        return fxImage;
+    }
+
+    /**
+     * Loads a page ahead of use, such as a neighbour of the page being viewed.
+     * Unlike {@link #getFXImage(int)}, the page is not made more recently used
+     * than the page being viewed, and is not kept if keeping both would exceed
+     * the budget, so prefetching never evicts the page being viewed.
+     *
+     * @param pageIndex page to load
+     * @param currentIndex page being viewed
+     * @throws UncheckedIOException if the page cannot be decoded
+     */
+    public void prefetchFXImage(int pageIndex, int currentIndex) {
+        CachedPage page;
+        synchronized (this) {
+            page = cache.peek(pageIndex);
+            if (page != null && page.fxImage != null) {
+                return;
+            }
+        }
+        BufferedImage image = page != null ? page.image : read(pageIndex);
+        CachedPage prefetched = new CachedPage(image, SwingFXUtils.toFXImage(image, null), null);
+        synchronized (this) {
+            page = cache.peek(pageIndex);
+            if (page != null && page.fxImage != null) {
+                return;
+            }
+            CachedPage current = cache.get(currentIndex); // ahead of older pages, which are evicted first
+            if (current != null && current.sizeInBytes() + prefetched.sizeInBytes() > cache.getBudget()) {
+                return;
+            }
+            cache.put(pageIndex, prefetched);
+            cache.get(currentIndex); // most recently used again
+        }
+    }
+
+    /**
+     * Gets a page as FX images at full size and at each level of an
+     * {@link ImagePyramid}, building the levels if not cached. The levels are
+     * built without holding the lock, so other pages can be retrieved
+     * meanwhile.
+     *
+     * @param pageIndex page index
+     * @return the full size image followed by the levels
+     * @throws UncheckedIOException if the page cannot be decoded
+     */
+    public Image[] getFXImageLevels(int pageIndex) {
+        Image fxImage = getFXImage(pageIndex);
+        BufferedImage image = null;
+        synchronized (this) {
+            CachedPage page = cache.get(pageIndex);
+            if (page != null && page.fxImage == fxImage) {
+                if (page.levels != null) {
+                    return withFullSize(fxImage, page.levels);
+                }
+                image = page.image;
+            }
+        }
+        if (image == null) {
+            image = get(pageIndex); // evicted meanwhile
+        }
+
+        Image[] levels = ImagePyramid.build(image, ImagePyramid.LEVELS);
+
+        synchronized (this) {
+            CachedPage page = cache.get(pageIndex);
+            if (page != null && page.image == image && page.fxImage == fxImage) {
+                cache.put(pageIndex, new CachedPage(image, fxImage, levels));
+            }
+        }
+        return withFullSize(fxImage, levels);
+    }
+
+    private static Image[] withFullSize(Image fxImage, Image[] levels) {
+        Image[] images = new Image[levels.length + 1];
+        images[0] = fxImage;
+        System.arraycopy(levels, 0, images, 1, levels.length);
+        return images;
+    }
+
+    /**
+     * Whether a page is too large to be shown as one FX image and must be
+     * retrieved in tiles.
+     *
+     * @param pageIndex page index
+     * @return true if the page is tiled
+     */
+    public boolean isTiled(int pageIndex) {
+        int width = getWidth(pageIndex);
+        int height = getHeight(pageIndex);
+        return width > MAX_UNTILED_SIZE || height > MAX_UNTILED_SIZE || (long) width * height > MAX_UNTILED_PIXELS;
+    }
+
+    /**
+     * Gets a tile of a page as an FX image, decoding it if not cached. A tile
+     * at level <code>n</code> covers <code>TILE_SIZE &lt;&lt; n</code> pixels
+     * of the page in each direction, subsampled to at most
+     * <code>TILE_SIZE</code>.
+     *
+     * @param pageIndex page index
+     * @param level level, 0 for full size
+     * @param col tile column
+     * @param row tile row
+     * @return tile image
+     * @throws UncheckedIOException if the tile cannot be decoded
+     */
+    public Image getFXTile(int pageIndex, int level, int col, int row) {
+        TileKey key = new TileKey(pageIndex, level, col, row);
+        Image tile;
+        synchronized (tiles) {
+            tile = tiles.get(key);
+        }
+        if (tile != null) {
+            hits.incrementAndGet();
+            return tile;
+        }
+        misses.incrementAndGet();
+        int span = TILE_SIZE << level;
+        Rectangle region = new Rectangle(col * span, row * span,
+                Math.min(span, getWidth(pageIndex) - col * span), Math.min(span, getHeight(pageIndex) - row * span));
+        BufferedImage image;
+        synchronized (readLock) {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(1 << level, 1 << level, 0, 0);
+            try {
+                image = reader.read(pageIndex, param);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        tile = SwingFXUtils.toFXImage(image, null);
+        synchronized (tiles) {
+            Image cached = tiles.get(key);
+            if (cached != null) {
+                return cached; // decoded meanwhile by another thread
+            }
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Gets a tile of a page if it is cached, without decoding it.
+     *
+     * @param pageIndex page index
+     * @param level level, 0 for full size
+     * @param col tile column
+     * @param row tile row
+     * @return tile image, or null if not cached
+     */
+    public Image getCachedFXTile(int pageIndex, int level, int col, int row) {
+        synchronized (tiles) {
+            return tiles.get(new TileKey(pageIndex, level, col, row));
+        }
+    }
+
+    /**
+     * Gets a region of a page as an FX image, decoding only that region if
+     * the page is not cached.
+     *
+     * @param pageIndex page index
+     * @param region region of the page, clipped to the page; must overlap it
+     * @return region image
+     * @throws UncheckedIOException if the region cannot be decoded
+     */
+    public Image getFXRegion(int pageIndex, Rectangle region) {
+        region = region.intersection(new Rectangle(getWidth(pageIndex), getHeight(pageIndex)));
+        CachedPage page;
+        synchronized (this) {
+            page = cache.get(pageIndex);
+        }
+        BufferedImage image;
+        if (page != null) {
+            image = page.image.getSubimage(region.x, region.y, region.width, region.height);
+        } else {
+            synchronized (readLock) {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                try {
+                    image = reader.read(pageIndex, param);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return SwingFXUtils.toFXImage(image, null);
+    }
+
+    private BufferedImage read(int pageIndex) {
+        BufferedImage image;
+        synchronized (readLock) {
+            try {
+                image = reader.read(pageIndex);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        synchronized (this) {
+            widths[pageIndex] = image.getWidth();
+            heights[pageIndex] = image.getHeight();
+        }
+        return image;
+    }
+
+    @Override
+    public int size() {
+        return pageCount;
+    }
+
+    /**
+     * Gets the width of a page without decoding it.
+     *
+     * @param pageIndex page index
+     * @return width in pixels
+     */
+    public int getWidth(int pageIndex) {
+        synchronized (this) {
+            if (widths[pageIndex] >= 0) {
+                return widths[pageIndex];
+            }
+        }
+        int width;
+        synchronized (readLock) {
+            try {
+                width = reader.getWidth(pageIndex);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        synchronized (this) {
+            widths[pageIndex] = width;
+        }
+        return width;
+    }
+
+    /**
+     * Gets the height of a page without decoding it.
+     *
+     * @param pageIndex page index
+     * @return height in pixels
+     */
+    public int getHeight(int pageIndex) {
+        synchronized (this) {
+            if (heights[pageIndex] >= 0) {
+                return heights[pageIndex];
+            }
+        }
+        int height;
+        synchronized (readLock) {
+            try {
+                height = reader.getHeight(pageIndex);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        synchronized (this) {
+            heights[pageIndex] = height;
+        }
+        return height;
+    }
+
+    /**
+     * Gets number of page retrievals served from the cache.
+     *
+     * @return
+     */
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets number of page retrievals that had to decode or convert.
+     *
+     * @return
+     */
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets bytes held by the cache.
+     *
+     * @return
+     */
+    public long getCacheSize() {
+        long size;
+        synchronized (this) {
+            size = cache.getWeight();
+        }
+        synchronized (tiles) {
+            return size + tiles.getWeight();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            cache.clear();
+        }
+        synchronized (tiles) {
+            tiles.clear();
+        }
+        synchronized (readLock) {
+            reader.dispose();
+            iis.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.utilities;
+
+import java.awt.image.BufferedImage;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Downsampled copies of a page image for zoomed-out display. Each level is
+ * half the size of the one before, each pixel the average of four. Levels are
+ * built from rows of the page image without converting it whole, and may be
+ * built on any thread.
+ */
+public final class ImagePyramid {
+
+    /**
+     * Number of levels below full size: 1/2, 1/4 and 1/8.
+     */
+    public static final int LEVELS = 3;
+
+    private ImagePyramid() {
+    }
+
+    /**
+     * Builds downsampled levels of an image.
+     *
+     * @param image page image
+     * @param levels number of levels
+     * @return level images, the first half the size of the page
+     */
+    public static Image[] build(BufferedImage image, int levels) {
+        Image[] result = new Image[levels];
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (levels == 0) {
+            return result;
+        }
+
+        // first level straight from the page, two rows at a time
+        int halfWidth = (width + 1) / 2;
+        int halfHeight = (height + 1) / 2;
+        int[] level = new int[halfWidth * halfHeight];
+        int[] rows = new int[width * 2];
+        for (int y = 0; y < halfHeight; y++) {
+            int rowCount = Math.min(2, height - 2 * y);
+            image.getRGB(0, 2 * y, width, rowCount, rows, 0, width);
+            halveRow(rows, 0, rows, rowCount == 2 ? width : 0, width, level, y * halfWidth);
+        }
+        result[0] = toImage(level, halfWidth, halfHeight);
+
+        for (int i = 1; i < levels; i++) {
+            width = halfWidth;
+            height = halfHeight;
+            halfWidth = (width + 1) / 2;
+            halfHeight = (height + 1) / 2;
+            int[] next = new int[halfWidth * halfHeight];
+            for (int y = 0; y < halfHeight; y++) {
+                int bottom = Math.min(2 * y + 1, height - 1);
+                halveRow(level, 2 * y * width, level, bottom * width, width, next, y * halfWidth);
+            }
+            level = next;
+            result[i] = toImage(level, halfWidth, halfHeight);
+        }
+        return result;
+    }
+
+    /**
+     * Averages two rows of ARGB pixels into one row of half the width.
+     */
+    private static void halveRow(int[] top, int topOffset, int[] bottom, int bottomOffset, int width, int[] out, int outOffset) {
+        int halfWidth = (width + 1) / 2;
+        for (int x = 0; x < halfWidth; x++) {
+            int x0 = 2 * x;
+            int x1 = Math.min(x0 + 1, width - 1);
+            int p0 = top[topOffset + x0];
+            int p1 = top[topOffset + x1];
+            int p2 = bottom[bottomOffset + x0];
+            int p3 = bottom[bottomOffset + x1];
+            int argb = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int sum = (p0 >>> shift & 0xFF) + (p1 >>> shift & 0xFF) + (p2 >>> shift & 0xFF) + (p3 >>> shift & 0xFF);
+                argb |= ((sum + 2) >> 2) << shift;
+            }
+            out[outOffset + x] = argb;
+        }
+    }
+
+    private static Image toImage(int[] pixels, int width, int height) {
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return image;
+    }
+}
@@ -15,53 +15,126 @@
  */
 package net.sourceforge.tessboxeditor.utilities;
 
-import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.util.Random;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.IntBuffer;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
 
 public class ImageUtils {
 
+    private static final int NOISE_BAND_ROWS = 64;
+
+    // Grey to sRGB, and sRGB channels to weighted linear grey in 16.16 fixed
+    // point, as drawing an sRGB colour into a grey image converts them
+    private static final int[] SRGB_OF_GREY = new int[256];
+    private static final int[] RED_GREY = new int[256];
+    private static final int[] GREEN_GREY = new int[256];
+    private static final int[] BLUE_GREY = new int[256];
+
+    static {
+        ColorModel grey = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).getColorModel();
+        for (int v = 0; v < 256; v++) {
+            SRGB_OF_GREY[v] = grey.getRGB(v) & 0xFF;
+            double c = v / 255.0;
+            double linear = 255 * 65536 * (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+            RED_GREY[v] = (int) Math.round(0.2125 * linear);
+            GREEN_GREY[v] = (int) Math.round(0.7154 * linear);
+            BLUE_GREY[v] = (int) Math.round(0.0721 * linear);
+        }
+    }
+
     /**
-     * Adds noise to an image. Adapted from an algorithm in
-     * http://www.gutgames.com/post/Adding-Noise-to-an-Image-in-C.aspx
+     * Adds noise to an image, with a random seed.
      *
      * @param originalImage
      * @param amount
      * @return
+     * @see #addNoise(BufferedImage, int, long)
      */
     public static BufferedImage addNoise(BufferedImage originalImage, int amount) {
-        BufferedImage targetImage = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        Random randomizer = new Random();
+        return addNoise(originalImage, amount, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Adds noise to an image. Adapted from an algorithm in
+     * http://www.gutgames.com/post/Adding-Noise-to-an-Image-in-C.aspx
+     * <p>
+     * The image is converted to 8-bit grey. Each pixel is taken as an sRGB
+     * colour, a random integer ranging from <code>-amount</code> to
+     * <code>amount</code> is added to each of its red, green and blue, and the
+     * result is converted back to grey, so noise of a given amount is as
+     * strong as it was when drawn through <code>setRGB</code>.
+     * Bands of rows are processed in parallel, each with its own generator
+     * split in band order from one seeded by <code>seed</code>, so the result
+     * depends only on the image, amount and seed.
+     *
+     * @param originalImage
+     * @param amount
+     * @param seed
+     * @return a new grey image
+     */
+    public static BufferedImage addNoise(BufferedImage originalImage, int amount, long seed) {
+        BufferedImage targetImage = toGray(originalImage);
+        WritableRaster raster = targetImage.getRaster();
+        PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int stride = sampleModel.getScanlineStride();
+        int width = targetImage.getWidth();
+        int height = targetImage.getHeight();
         int n = amount * 2 + 1;
 
-        for (int x = 0; x < targetImage.getWidth(); ++x) {
-            for (int y = 0; y < targetImage.getHeight(); ++y) {
-                int rgb = originalImage.getRGB(x, y);
-                Color color = new Color(rgb);
-                // add random integers ranging from -amount to amount
-                int r = color.getRed() + randomizer.nextInt(n) - amount;
-                int g = color.getGreen() + randomizer.nextInt(n) - amount;
-                int b = color.getBlue() + randomizer.nextInt(n) - amount;
-                r = r > 255 ? 255 : r;
-                r = r < 0 ? 0 : r;
-                g = g > 255 ? 255 : g;
-                g = g < 0 ? 0 : g;
-                b = b > 255 ? 255 : b;
-                b = b < 0 ? 0 : b;
-
-                color = new Color(r, g, b);
-                targetImage.setRGB(x, y, color.getRGB());
-            }
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randomizers = new SplittableRandom[(height + NOISE_BAND_ROWS - 1) / NOISE_BAND_ROWS];
+        for (int i = 0; i < randomizers.length; i++) {
+            randomizers[i] = root.split();
         }
 
+        IntStream.range(0, randomizers.length).parallel().forEach(band -> {
+            SplittableRandom randomizer = randomizers[band];
+            int endRow = Math.min(height, (band + 1) * NOISE_BAND_ROWS);
+            for (int y = band * NOISE_BAND_ROWS; y < endRow; y++) {
+                for (int i = y * stride, end = i + width; i < end; i++) {
+                    int s = SRGB_OF_GREY[data[i] & 0xFF];
+                    int r = clamp(s + randomizer.nextInt(n) - amount);
+                    int g = clamp(s + randomizer.nextInt(n) - amount);
+                    int b = clamp(s + randomizer.nextInt(n) - amount);
+                    data[i] = (byte) clamp((RED_GREY[r] + GREEN_GREY[g] + BLUE_GREY[b] + 0x8000) >> 16);
+                }
+            }
+        });
+
         return targetImage;
     }
 
+    /**
+     * Copies an image into a new 8-bit grey image.
+     */
+    private static int clamp(int v) {
+        return v > 255 ? 255 : v < 0 ? 0 : v;
+    }
+
+    private static BufferedImage toGray(BufferedImage image) {
+        BufferedImage grayImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            grayImage.setData(image.getRaster());
+        } else {
+            Graphics2D g2d = grayImage.createGraphics();
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+        }
+        return grayImage;
+    }
+
     /**
      * Gets a subimage for display in boxview.
      *
@@ -83,12 +156,15 @@ public class ImageUtils {
         double height = iconHeight + margin * 2;
         double width = iconWidth + margin * 2;
 
-        while (width + iconPosX > image.getWidth() + 1) {
-            width -= 1;
+        // trim whole pixels that extend past the image
+        double excessWidth = width + iconPosX - (imageWidth + 1);
+        if (excessWidth > 0) {
+            width -= Math.ceil(excessWidth);
         }
 
-        while (height + iconPosY > image.getHeight() + 1) {
-            height -= 1;
+        double excessHeight = height + iconPosY - (imageHeight + 1);
+        if (excessHeight > 0) {
+            height -= Math.ceil(excessHeight);
         }
 
         WritableImage subImage = new WritableImage(image.getPixelReader(), (int) Math.max(0, Math.min(imageWidth - 1, iconPosX - margin)),
@@ -98,7 +174,10 @@ public class ImageUtils {
     }
 
     /**
-     * https://gist.github.com/jewelsea/5415891
+     * Enlarges an image by an integer factor, repeating each pixel. Based on
+     * https://gist.github.com/jewelsea/5415891, with the pixels read and
+     * written in bulk: each source row is widened once and then copied for the
+     * remaining rows of its block.
      *
      * @param input
      * @param scaleFactor
@@ -108,26 +187,33 @@ public class ImageUtils {
         final int W = (int) input.getWidth();
         final int H = (int) input.getHeight();
         final int S = scaleFactor;
+        final int outW = W * S;
 
         WritableImage output = new WritableImage(
-                W * S,
+                outW,
                 H * S
         );
 
-        PixelReader reader = input.getPixelReader();
-        PixelWriter writer = output.getPixelWriter();
+        WritablePixelFormat<IntBuffer> format = PixelFormat.getIntArgbInstance();
+        int[] src = new int[W * H];
+        input.getPixelReader().getPixels(0, 0, W, H, format, src, 0, W);
+        int[] dst = new int[outW * H * S];
 
         for (int y = 0; y < H; y++) {
-            for (int x = 0; x < W; x++) {
-                final int argb = reader.getArgb(x, y);
-                for (int dy = 0; dy < S; dy++) {
-                    for (int dx = 0; dx < S; dx++) {
-                        writer.setArgb(x * S + dx, y * S + dy, argb);
-                    }
+            int rowStart = y * S * outW;
+            int d = rowStart;
+            for (int x = y * W, end = x + W; x < end; x++) {
+                final int argb = src[x];
+                for (int dx = 0; dx < S; dx++) {
+                    dst[d++] = argb;
                 }
             }
+            for (int dy = 1; dy < S; dy++) {
+                System.arraycopy(dst, rowStart, dst, rowStart + dy * outW, outW);
+            }
         }
 
+        output.getPixelWriter().setPixels(0, 0, outW, H * S, format, dst, 0, outW);
         return output;
     }
 }
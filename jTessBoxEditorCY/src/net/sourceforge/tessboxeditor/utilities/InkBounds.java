@@ -0,0 +1,190 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.utilities;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+
+/**
+ * Finds the ink within areas of a page, to fit boxes tightly around their
+ * characters. Scans the bytes of a 1-bit or 8-bit grey raster directly; pages
+ * of other types are converted to grey once. Each side of an area is moved in
+ * by scanning rows or columns from the outside until one holds ink, so only
+ * the margin around the ink is read.
+ */
+public final class InkBounds {
+
+    /**
+     * Grey levels below this are ink.
+     */
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    private final byte[] data;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+    private final boolean packed; // 1 bit per pixel, most significant bit first
+    private final int bitOffset;
+    private final int inkBit;
+    private final int threshold;
+
+    /**
+     * Prepares a page for scanning with the default threshold.
+     *
+     * @param image page image
+     */
+    public InkBounds(BufferedImage image) {
+        this(image, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Prepares a page for scanning.
+     *
+     * @param image page image
+     * @param threshold grey levels below this are ink; not used for 1-bit
+     * images
+     */
+    public InkBounds(BufferedImage image, int threshold) {
+        if (!isPacked(image) && !isGray(image)) {
+            BufferedImage grayImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g2d = grayImage.createGraphics();
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+            image = grayImage;
+        }
+        Raster raster = image.getRaster();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.threshold = threshold;
+        this.packed = isPacked(image);
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        this.data = buffer.getData();
+        int dx = raster.getMinX() - raster.getSampleModelTranslateX();
+        int dy = raster.getMinY() - raster.getSampleModelTranslateY();
+        if (packed) {
+            MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel) raster.getSampleModel();
+            this.stride = sampleModel.getScanlineStride();
+            this.bitOffset = sampleModel.getDataBitOffset() + dx;
+            this.offset = buffer.getOffset() + dy * stride;
+            IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+            this.inkBit = brightness(colorModel.getRGB(0)) < brightness(colorModel.getRGB(1)) ? 0 : 1;
+        } else {
+            PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+            this.stride = sampleModel.getScanlineStride();
+            this.bitOffset = 0;
+            this.offset = buffer.getOffset() + sampleModel.getOffset(dx, dy);
+            this.inkBit = 0;
+        }
+    }
+
+    private static boolean isPacked(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_BYTE_BINARY && image.getColorModel().getPixelSize() == 1;
+    }
+
+    private static boolean isGray(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+    }
+
+    private static int brightness(int rgb) {
+        return ((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF);
+    }
+
+    /**
+     * Gets the smallest rectangle holding all ink within an area.
+     *
+     * @param area area of the page; clipped to the page
+     * @return the ink bounds, or null if the area has no ink
+     */
+    public Rectangle tighten(Rectangle area) {
+        int minX = Math.max(0, area.x);
+        int minY = Math.max(0, area.y);
+        int maxX = Math.min(width, area.x + area.width) - 1;
+        int maxY = Math.min(height, area.y + area.height) - 1;
+
+        while (minY <= maxY && !rowHasInk(minY, minX, maxX)) {
+            minY++;
+        }
+        if (minY > maxY) {
+            return null;
+        }
+        while (!rowHasInk(maxY, minX, maxX)) {
+            maxY--;
+        }
+        while (!columnHasInk(minX, minY, maxY)) {
+            minX++;
+        }
+        while (!columnHasInk(maxX, minY, maxY)) {
+            maxX--;
+        }
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    private boolean rowHasInk(int y, int minX, int maxX) {
+        int row = offset + y * stride;
+        if (!packed) {
+            for (int i = row + minX, end = row + maxX; i <= end; i++) {
+                if ((data[i] & 0xFF) < threshold) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int first = bitOffset + minX;
+        int last = bitOffset + maxX;
+        int paper = inkBit == 0 ? 0xFF : 0x00;
+        for (int i = row + (first >> 3), end = row + (last >> 3); i <= end; i++) {
+            int bits = (data[i] ^ paper) & 0xFF; // ink bits set
+            if (i == row + (first >> 3)) {
+                bits &= 0xFF >> (first & 7);
+            }
+            if (i == end) {
+                bits &= 0xFF << (7 - (last & 7));
+            }
+            if (bits != 0) {
+                return true; // eight pixels are checked at a time
+            }
+        }
+        return false;
+    }
+
+    private boolean columnHasInk(int x, int minY, int maxY) {
+        if (!packed) {
+            for (int y = minY, i = offset + minY * stride + x; y <= maxY; y++, i += stride) {
+                if ((data[i] & 0xFF) < threshold) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int bit = bitOffset + x;
+        int shift = 7 - (bit & 7);
+        for (int y = minY, i = offset + minY * stride + (bit >> 3); y <= maxY; y++, i += stride) {
+            if (((data[i] >> shift) & 1) == inkBit) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
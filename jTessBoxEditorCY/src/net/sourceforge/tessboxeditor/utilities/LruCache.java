@@ -0,0 +1,125 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.utilities;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Least-recently-used cache bounded by the total weight of its values, such as
+ * their size in bytes. The most recently added value is kept even if it alone
+ * exceeds the budget. Not thread-safe.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruCache<K, V> {
+
+    private final long budget;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+    private long weight;
+
+    /**
+     * Creates a cache.
+     *
+     * @param budget maximum total weight
+     * @param weigher weight of a value
+     */
+    public LruCache(long budget, ToLongFunction<V> weigher) {
+        this.budget = budget;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Gets a value and marks it most recently used.
+     *
+     * @param key
+     * @return value, or null if not cached
+     */
+    public V get(K key) {
+        return map.get(key);
+    }
+
+    /**
+     * Gets a value without marking it used. Takes time in proportion to the
+     * number of values, so suits small caches such as of pages.
+     *
+     * @param key
+     * @return value, or null if not cached
+     */
+    public V peek(K key) {
+        if (!map.containsKey(key)) {
+            return null;
+        }
+        for (Map.Entry<K, V> entry : map.entrySet()) { // iterating does not reorder
+            if (entry.getKey().equals(key)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds or replaces a value, then evicts least recently used values until
+     * the total weight is within budget.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(K key, V value) {
+        V old = map.put(key, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += weigher.applyAsLong(value);
+
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (weight > budget && map.size() > 1) {
+            Map.Entry<K, V> eldest = it.next();
+            weight -= weigher.applyAsLong(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes all values.
+     */
+    public void clear() {
+        map.clear();
+        weight = 0;
+    }
+
+    /**
+     * Gets maximum total weight.
+     *
+     * @return
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets total weight of cached values.
+     *
+     * @return
+     */
+    public long getWeight() {
+        return weight;
+    }
+}
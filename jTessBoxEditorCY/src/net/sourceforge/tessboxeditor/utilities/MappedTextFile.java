@@ -0,0 +1,141 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.sourceforge.tessboxeditor.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads a large UTF-8 text file a chunk at a time through memory mapping. Each
+ * chunk ends on a line boundary. The file is mapped only while a chunk is
+ * decoded, so it can be rewritten between reads.
+ */
+public class MappedTextFile {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final File file;
+    private final long size;
+    private long offset;
+
+    private final static Logger logger = Logger.getLogger(MappedTextFile.class.getName());
+
+    public MappedTextFile(File file) {
+        this.file = file;
+        this.size = file.length();
+    }
+
+    /**
+     * Whether there is more text to read.
+     *
+     * @return
+     */
+    public boolean hasNext() {
+        return offset < size;
+    }
+
+    /**
+     * Reads the next chunk of text.
+     *
+     * @return text up to and including the last line break of the chunk, or
+     * the rest of the file
+     * @throws IOException
+     */
+    public String next() throws IOException {
+        if (!hasNext()) {
+            return "";
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int len = (int) Math.min(CHUNK_SIZE, size - offset);
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+            try {
+                int end = len;
+                boolean complete = true;
+                if (offset + len < size) {
+                    // end on a line break so no line or character is split
+                    while (end > 0 && bytes.get(end - 1) != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        // overlong line; the decoder leaves a split character for the next chunk
+                        end = len;
+                        complete = false;
+                    }
+                }
+                bytes.limit(end);
+                CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                CharBuffer chars = CharBuffer.allocate(end);
+                decoder.decode(bytes, chars, complete);
+                if (complete) {
+                    decoder.flush(chars);
+                }
+                offset += bytes.position();
+                chars.flip();
+                return chars.toString();
+            } finally {
+                unmap(bytes);
+            }
+        }
+    }
+
+    /**
+     * Releases a mapped buffer right away instead of waiting for garbage
+     * collection, which would keep the file locked on Windows. The buffer must
+     * not be used afterwards.
+     *
+     * @param buffer mapped buffer
+     */
+    public static void unmap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                // Java 9+
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            // leave it to the garbage collector
+            logger.log(Level.FINE, e.getMessage(), e);
+        }
+    }
+}
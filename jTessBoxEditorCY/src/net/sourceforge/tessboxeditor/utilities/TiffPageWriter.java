@@ -0,0 +1,126 @@
+/**
+ * Copyright @ 2016 Quan Nguyen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sourceforge.tessboxeditor.utilities;
+
+import com.github.jaiimageio.plugins.tiff.BaselineTIFFTagSet;
+import com.github.jaiimageio.plugins.tiff.TIFFDirectory;
+import com.github.jaiimageio.plugins.tiff.TIFFField;
+import com.github.jaiimageio.plugins.tiff.TIFFImageWriteParam;
+import com.github.jaiimageio.plugins.tiff.TIFFTag;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Streaming multi-page TIFF writer. Each page is compressed and appended to
+ * the file as it is written, so pages need not be held until the document is
+ * complete. Pages are written at 300 DPI, as
+ * <code>ImageIOHelper.mergeTiff</code> does. The file is created with the
+ * first page; a writer closed without pages creates none.
+ */
+public class TiffPageWriter implements Closeable {
+
+    private static final int DPI = 300;
+
+    private final File file;
+    private final ImageWriter writer;
+    private final TIFFImageWriteParam param;
+    private ImageOutputStream ios;
+
+    /**
+     * Creates a writer.
+     *
+     * @param file TIFF file; replaced if it exists
+     * @param compressionType compression, such as "CCITT T.6" for 1bpp pages
+     * or "LZW"; null for none
+     * @throws IOException if no TIFF writer is installed
+     */
+    public TiffPageWriter(File file, String compressionType) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+        if (!writers.hasNext()) {
+            throw new IOException("Need to install JAI Image I/O package.\nhttps://github.com/jai-imageio/jai-imageio-core");
+        }
+        this.file = file;
+        this.writer = writers.next();
+        this.param = new TIFFImageWriteParam(Locale.US);
+        if (compressionType != null) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(compressionType);
+        }
+    }
+
+    /**
+     * Appends a page.
+     *
+     * @param image page image
+     * @throws IOException
+     */
+    public void writePage(BufferedImage image) throws IOException {
+        if (ios == null) {
+            file.delete();
+            ios = ImageIO.createImageOutputStream(file);
+            if (ios == null) {
+                throw new IOException("Cannot write " + file);
+            }
+            writer.setOutput(ios);
+            writer.prepareWriteSequence(writer.getDefaultStreamMetadata(param));
+        }
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), writer.getDefaultWriteParam());
+        writer.writeToSequence(new IIOImage(image, null, setResolution(metadata)), param);
+    }
+
+    private static IIOMetadata setResolution(IIOMetadata metadata) throws IOException {
+        TIFFDirectory dir = TIFFDirectory.createFromMetadata(metadata);
+        BaselineTIFFTagSet base = BaselineTIFFTagSet.getInstance();
+        long[][] resolution = {{DPI, 1}};
+        for (int tag : new int[]{BaselineTIFFTagSet.TAG_X_RESOLUTION, BaselineTIFFTagSet.TAG_Y_RESOLUTION}) {
+            dir.addTIFFField(new TIFFField(base.getTag(tag), TIFFTag.TIFF_RATIONAL, 1, resolution));
+        }
+        dir.addTIFFField(new TIFFField(base.getTag(BaselineTIFFTagSet.TAG_RESOLUTION_UNIT), BaselineTIFFTagSet.RESOLUTION_UNIT_INCH));
+        return dir.getAsMetadata();
+    }
+
+    /**
+     * Completes the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (ios != null) {
+                try {
+                    writer.endWriteSequence();
+                } finally {
+                    ios.close();
+                }
+            }
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.logging.Level;
@@ -68,6 +69,34 @@ public class Utils {
         }
     }
 
+    /**
+     * Gets the temporary name an output file is written under until it is
+     * complete.
+     *
+     * @param file output file
+     * @return temporary file, next to the output file
+     */
+    public static File partFile(File file) {
+        return new File(file.getParentFile(), file.getName() + ".part");
+    }
+
+    /**
+     * Moves a completed output file from its temporary name into place,
+     * replacing any earlier version. If nothing was written under the
+     * temporary name, the earlier version is removed.
+     *
+     * @param file output file
+     * @throws IOException
+     */
+    public static void commitPartFile(File file) throws IOException {
+        File part = partFile(file);
+        if (part.exists()) {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
     /**
      * Creates stub empty file, as needed.
      *